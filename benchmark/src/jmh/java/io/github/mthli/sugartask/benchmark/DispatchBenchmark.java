@@ -0,0 +1,92 @@
+/*
+ * Copyright 2015 Matthew Lee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.mthli.sugartask.benchmark;
+
+import io.github.mthli.sugartask.QueueDispatcher;
+import io.github.mthli.sugartask.TaskEngine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Latency of a single task, from execute() to onFinish() on MainThread,
+ * sampled so the tail percentiles are visible.
+ *
+ * 单个任务从 execute() 到主线程 onFinish() 的延迟，
+ * 使用采样模式，可以看到尾部的百分位数。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DispatchBenchmark {
+    private QueueDispatcher dispatcher;
+
+    private TaskEngine<Object> engine;
+
+    private Object owner;
+
+    private boolean finished;
+
+    private TaskEngine.TaskDescription description;
+
+    private TaskEngine.FinishListener listener;
+
+    private QueueDispatcher.Condition condition;
+
+    @Setup
+    public void setup() {
+        dispatcher = new QueueDispatcher();
+        engine = new TaskEngine<>(dispatcher);
+        owner = new Object();
+
+        description = new TaskEngine.TaskDescription() {
+            @Override
+            public Object onBackground() {
+                return null;
+            }
+        };
+
+        listener = new TaskEngine.FinishListener() {
+            @Override
+            public void onFinish(Object result) {
+                finished = true;
+            }
+        };
+
+        condition = new QueueDispatcher.Condition() {
+            @Override
+            public boolean done() {
+                return finished;
+            }
+        };
+    }
+
+    @Benchmark
+    public boolean roundTrip() throws InterruptedException {
+        finished = false;
+        engine.with(owner).assign(description).finish(listener).execute();
+        dispatcher.runUntil(condition);
+        return finished;
+    }
+}
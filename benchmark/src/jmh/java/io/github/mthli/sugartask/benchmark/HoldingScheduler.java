@@ -0,0 +1,60 @@
+/*
+ * Copyright 2015 Matthew Lee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.mthli.sugartask.benchmark;
+
+import io.github.mthli.sugartask.TaskEngine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+ * While holding, submitted works stay queued and their tasks stay in the table,
+ * otherwise they run on a single WorkerThread.
+ *
+ * 保持状态下，提交的任务留在队列中，它们也会一直留在任务表中，
+ * 否则在单个后台线程中运行。
+ */
+final class HoldingScheduler implements TaskEngine.Scheduler {
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private final List<Runnable> held = new ArrayList<>();
+
+    private volatile boolean holding = true;
+
+    void setHolding(boolean holding) {
+        this.holding = holding;
+    }
+
+    void clear() {
+        held.clear();
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Override
+    public void schedule(Runnable runnable, int priority, int type) {
+        if (holding) {
+            held.add(runnable);
+        } else {
+            executor.execute(runnable);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2015 Matthew Lee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.mthli.sugartask.benchmark;
+
+import io.github.mthli.sugartask.QueueDispatcher;
+import io.github.mthli.sugartask.TaskEngine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Fan-out of progress messages while many other tasks with MessageListener are registered,
+ * post() only reaches the posting task, broadcast() reaches every listener.
+ *
+ * 在注册了大量带有 MessageListener 的其他任务时发送进度消息，
+ * post() 只会到达发送消息的任务， broadcast() 会到达每一个监听者。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PostBenchmark {
+    private static final int MESSAGES = 64;
+
+    @Param({"1", "100", "1000"})
+    public int listeners;
+
+    private QueueDispatcher dispatcher;
+
+    private TaskEngine<Object> engine;
+
+    private HoldingScheduler scheduler;
+
+    private Object owner;
+
+    private int received;
+
+    private boolean finished;
+
+    private TaskEngine.MessageListener<Object> listener;
+
+    private TaskEngine.FinishListener finishListener;
+
+    private QueueDispatcher.Condition condition;
+
+    @Setup
+    public void setup() {
+        dispatcher = new QueueDispatcher();
+        engine = new TaskEngine<>(dispatcher);
+        scheduler = new HoldingScheduler();
+        engine.setScheduler(scheduler);
+        owner = new Object();
+
+        listener = new TaskEngine.MessageListener<Object>() {
+            @Override
+            public void handleMessage(Object message) {
+                received++;
+            }
+        };
+
+        finishListener = new TaskEngine.FinishListener() {
+            @Override
+            public void onFinish(Object result) {
+                finished = true;
+            }
+        };
+
+        condition = new QueueDispatcher.Condition() {
+            @Override
+            public boolean done() {
+                return finished;
+            }
+        };
+
+        for (int i = 0; i < listeners; i++) {
+            engine.with(owner).assign(new TaskEngine.TaskDescription() {
+                @Override
+                public Object onBackground() {
+                    return null;
+                }
+            }).handle(listener).execute();
+        }
+
+        scheduler.setHolding(false);
+    }
+
+    @TearDown
+    public void tearDown() {
+        engine.stop(owner);
+        dispatcher.runPending();
+
+        scheduler.clear();
+        scheduler.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public int post() throws InterruptedException {
+        return run(false);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public int broadcast() throws InterruptedException {
+        return run(true);
+    }
+
+    private int run(final boolean broadcast) throws InterruptedException {
+        received = 0;
+        finished = false;
+
+        engine.with(owner).assign(new TaskEngine.TaskDescription() {
+            @Override
+            public Object onBackground() {
+                for (int i = 0; i < MESSAGES; i++) {
+                    if (broadcast) {
+                        engine.broadcast(i);
+                    } else {
+                        engine.post(i);
+                    }
+                }
+
+                return null;
+            }
+        }).handle(listener).finish(finishListener).execute();
+
+        dispatcher.runUntil(condition);
+        return received;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2015 Matthew Lee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.mthli.sugartask.benchmark;
+
+import io.github.mthli.sugartask.QueueDispatcher;
+import io.github.mthli.sugartask.TaskEngine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Submit a batch of trivial tasks through the default TaskScheduler and wait until all of them finish,
+ * so it covers execute(), the queue, the WorkerThread and the MainThread delivery.
+ *
+ * 通过默认的 TaskScheduler 提交一批空任务，并等待它们全部完成，
+ * 覆盖了 execute() 、队列、后台线程以及主线程的结果分发。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SubmissionBenchmark {
+    private static final int BATCH = 100;
+
+    @Param({"0", "64"})
+    public int work;
+
+    private QueueDispatcher dispatcher;
+
+    private TaskEngine<Object> engine;
+
+    private Object owner;
+
+    private int finished;
+
+    private TaskEngine.TaskDescription description;
+
+    private TaskEngine.FinishListener listener;
+
+    private QueueDispatcher.Condition condition;
+
+    @Setup
+    public void setup() {
+        dispatcher = new QueueDispatcher();
+        engine = new TaskEngine<>(dispatcher);
+        owner = new Object();
+
+        description = new TaskEngine.TaskDescription() {
+            @Override
+            public Object onBackground() {
+                long sum = 0L;
+                for (int i = 0; i < work; i++) {
+                    sum += i * 31;
+                }
+
+                return sum;
+            }
+        };
+
+        listener = new TaskEngine.FinishListener() {
+            @Override
+            public void onFinish(Object result) {
+                finished++;
+            }
+        };
+
+        condition = new QueueDispatcher.Condition() {
+            @Override
+            public boolean done() {
+                return finished == BATCH;
+            }
+        };
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int submit() throws InterruptedException {
+        finished = 0;
+        for (int i = 0; i < BATCH; i++) {
+            engine.with(owner).assign(description).finish(listener).execute();
+        }
+
+        dispatcher.runUntil(condition);
+        return finished;
+    }
+}
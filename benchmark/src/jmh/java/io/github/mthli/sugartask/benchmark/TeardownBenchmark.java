@@ -0,0 +1,112 @@
+/*
+ * Copyright 2015 Matthew Lee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.mthli.sugartask.benchmark;
+
+import io.github.mthli.sugartask.QueueDispatcher;
+import io.github.mthli.sugartask.TaskEngine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * MESSAGE_STOP teardown of an owner which still holds a large table of queued tasks,
+ * while some other owners stay alive.
+ *
+ * 对一个仍然持有大量排队任务的宿主执行 MESSAGE_STOP 清理，
+ * 同时还有其他宿主存活。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TeardownBenchmark {
+    private static final int ALIVE = 16;
+
+    @Param({"10", "1000", "10000"})
+    public int tasks;
+
+    private QueueDispatcher dispatcher;
+
+    private TaskEngine<Object> engine;
+
+    private HoldingScheduler scheduler;
+
+    private Object owner;
+
+    private TaskEngine.TaskDescription description;
+
+    private TaskEngine.FinishListener listener;
+
+    @Setup
+    public void setup() {
+        dispatcher = new QueueDispatcher();
+        engine = new TaskEngine<>(dispatcher);
+        scheduler = new HoldingScheduler();
+        engine.setScheduler(scheduler);
+
+        description = new TaskEngine.TaskDescription() {
+            @Override
+            public Object onBackground() {
+                return null;
+            }
+        };
+
+        listener = new TaskEngine.FinishListener() {
+            @Override
+            public void onFinish(Object result) {
+            }
+        };
+
+        for (int i = 0; i < ALIVE; i++) {
+            Object alive = new Object();
+            for (int j = 0; j < 16; j++) {
+                engine.with(alive).assign(description).finish(listener).execute();
+            }
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void fill() {
+        owner = new Object();
+        for (int i = 0; i < tasks; i++) {
+            engine.with(owner).assign(description).finish(listener).execute();
+        }
+
+        scheduler.clear();
+    }
+
+    @TearDown
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Benchmark
+    public Object stop() {
+        engine.stop(owner);
+        dispatcher.runPending();
+        return owner;
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2015 Matthew Lee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.mthli.sugartask;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Pool of byte arrays for large results, such as file contents and encoded images.
+ * Fill a Buffer from acquire() in onBackground() and return it as the result,
+ * it goes to FinishListener without copying, recycle() it when you are done with it.
+ * If the owner stops before delivery, the engine recycles it right away.
+ * Arrays are kept by power-of-two size classes, at most maxBytes in total.
+ *
+ * 用于大结果的字节数组池，比如文件内容和编码后的图片。
+ * 在 onBackground() 中填充 acquire() 得到的 Buffer 并将它作为结果返回，
+ * 它会不经复制地到达 FinishListener ，使用完之后调用 recycle() 。
+ * 如果宿主在结果发送之前停止，引擎会立即回收它。
+ * 数组按照 2 的幂次大小分级保存，总共最多保存 maxBytes 字节。
+ */
+public class BufferPool {
+    public static final int MIN_SIZE = 4096;
+
+    public class Buffer implements TaskEngine.Releasable {
+        private byte[] array;
+
+        private int length = 0;
+
+        private boolean recycled = false;
+
+        private Buffer(byte[] array) {
+            this.array = array;
+        }
+
+        /*
+         * The backing array, it can be longer than what you acquired.
+         *
+         * 底层的数组，它可能比你申请的更长。
+         */
+        public byte[] array() {
+            return array;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        public void setLength(int length) {
+            this.length = length;
+        }
+
+        /*
+         * Give the array back to the pool, don't touch the buffer after it.
+         *
+         * 将数组交还给池，之后不要再访问这个 buffer 。
+         */
+        public void recycle() {
+            byte[] old;
+
+            synchronized (this) {
+                if (recycled) {
+                    return;
+                }
+
+                recycled = true;
+                old = array;
+                array = null;
+            }
+
+            offer(old);
+        }
+
+        @Override
+        public void release() {
+            recycle();
+        }
+    }
+
+    private static final int DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+
+    /*
+     * MIN_SIZE << MAX_BUCKET is 1GB, larger arrays are allocated but never pooled.
+     *
+     * MIN_SIZE << MAX_BUCKET 为 1GB ，更大的数组会被分配但不会被放入池中。
+     */
+    private static final int MAX_BUCKET = 18;
+
+    private List<ArrayDeque<byte[]>> bucketList = new ArrayList<>();
+
+    private long maxBytes;
+
+    private long bytes = 0;
+
+    private long hitCount = 0;
+
+    private long missCount = 0;
+
+    public BufferPool() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    public BufferPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /*
+     * A buffer with at least size bytes, reused from the pool when possible.
+     *
+     * 至少拥有 size 字节的 buffer ，尽可能从池中复用。
+     */
+    public Buffer acquire(int size) {
+        int bucket = bucketOf(size);
+        byte[] array = null;
+
+        synchronized (this) {
+            if (bucket < bucketList.size()) {
+                array = bucketList.get(bucket).poll();
+            }
+
+            if (array != null) {
+                bytes -= array.length;
+                hitCount++;
+            } else {
+                missCount++;
+            }
+        }
+
+        if (array == null) {
+            array = new byte[Math.max(MIN_SIZE << bucket, size)];
+        }
+
+        return new Buffer(array);
+    }
+
+    /*
+     * Drop every pooled array, for example in onTrimMemory().
+     *
+     * 丢弃所有池中的数组，比如在 onTrimMemory() 中调用。
+     */
+    public synchronized void clear() {
+        bucketList.clear();
+        bytes = 0;
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    private synchronized void offer(byte[] array) {
+        int bucket = bucketOf(array.length);
+        if ((MIN_SIZE << bucket) != array.length || bytes + array.length > maxBytes) {
+            return;
+        }
+
+        while (bucketList.size() <= bucket) {
+            bucketList.add(new ArrayDeque<byte[]>());
+        }
+
+        bucketList.get(bucket).push(array);
+        bytes += array.length;
+    }
+
+    private static int bucketOf(int size) {
+        int bucket = 0;
+        while ((MIN_SIZE << bucket) < size && bucket < MAX_BUCKET) {
+            bucket++;
+        }
+
+        return bucket;
+    }
+}
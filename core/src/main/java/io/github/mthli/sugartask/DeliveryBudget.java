@@ -0,0 +1,180 @@
+/*
+ * Copyright 2015 Matthew Lee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.mthli.sugartask;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Delivery budget of TaskEngine, only touched on MainThread except the counters.
+ * Results which don't fit in the budget of the current frame wait in queues by priority,
+ * cost is the moving average of measured callbacks, used to guess whether the next one fits.
+ *
+ * TaskEngine 的分发预算，除了计数器之外只在主线程中访问。
+ * 无法放进当前帧预算的结果按照优先级在队列中等待，
+ * cost 是测量到的回调耗时的移动平均值，用于估计下一个回调是否放得下。
+ */
+class DeliveryBudget<T> {
+    interface Delivery<T> {
+        void deliver(T item, int what);
+    }
+
+    private static class Pending<T> {
+        private T item;
+
+        private int what;
+
+        private Pending(T item, int what) {
+            this.item = item;
+            this.what = what;
+        }
+    }
+
+    private static final long FRAME_NANOS = TimeUnit.MILLISECONDS.toNanos(16);
+
+    private Delivery<T> delivery;
+
+    private List<ArrayDeque<Pending<T>>> queues = new ArrayList<>();
+
+    private int pending = 0;
+
+    private volatile long budget;
+
+    private long cost = 0L;
+
+    private long windowStart = 0L;
+
+    private long windowSpent = 0L;
+
+    private boolean windowOver = false;
+
+    private AtomicLong overBudgetCount = new AtomicLong(0);
+
+    private AtomicLong postponedCount = new AtomicLong(0);
+
+    DeliveryBudget(Delivery<T> delivery, long budgetMillis) {
+        this.delivery = delivery;
+        setBudget(budgetMillis);
+
+        for (int i = TaskEngine.PRIORITY_HIGH; i <= TaskEngine.PRIORITY_LOW; i++) {
+            queues.add(new ArrayDeque<Pending<T>>());
+        }
+    }
+
+    void setBudget(long budgetMillis) {
+        budget = TimeUnit.MILLISECONDS.toNanos(Math.max(0, budgetMillis));
+    }
+
+    long getBudget() {
+        return TimeUnit.NANOSECONDS.toMillis(budget);
+    }
+
+    long getOverBudgetCount() {
+        return overBudgetCount.get();
+    }
+
+    long getPostponedCount() {
+        return postponedCount.get();
+    }
+
+    /*
+     * Deliver at once while the frame has budget left and nothing is waiting,
+     * otherwise wait in the queue of its priority for the next frame,
+     * so results of the same priority keep their order.
+     * Return true when the item waits, the caller should request a frame then.
+     *
+     * 当这一帧还有剩余预算且没有结果在等待时立即发送，
+     * 否则在它的优先级队列中等待下一帧，
+     * 这样相同优先级的结果会保持它们的顺序。
+     * 结果需要等待时返回 true ，此时调用者应该请求一帧。
+     */
+    boolean offer(T item, int what, int priority) {
+        if (budget <= 0 && pending == 0) {
+            delivery.deliver(item, what);
+            return false;
+        }
+
+        long now = System.nanoTime();
+        if (now - windowStart >= FRAME_NANOS) {
+            openWindow(now);
+        }
+
+        if (pending == 0 && fitsWindow()) {
+            measure(item, what);
+            return false;
+        }
+
+        int index = Math.max(TaskEngine.PRIORITY_HIGH, Math.min(priority, TaskEngine.PRIORITY_LOW));
+        queues.get(index).addLast(new Pending<>(item, what));
+        pending++;
+        postponedCount.incrementAndGet();
+
+        return true;
+    }
+
+    /*
+     * Open a new window for the frame and deliver what fits, by priority.
+     * Return true when something still waits, the caller should request another frame then.
+     *
+     * 为这一帧打开一个新的窗口，并按照优先级发送放得下的结果。
+     * 仍有结果在等待时返回 true ，此时调用者应该再请求一帧。
+     */
+    boolean flush() {
+        if (pending == 0) {
+            return false;
+        }
+
+        openWindow(System.nanoTime());
+
+        for (int i = 0; i < queues.size() && pending > 0; i++) {
+            ArrayDeque<Pending<T>> queue = queues.get(i);
+            while (!queue.isEmpty() && fitsWindow()) {
+                Pending<T> next = queue.pollFirst();
+                pending--;
+                measure(next.item, next.what);
+            }
+        }
+
+        return pending > 0;
+    }
+
+    private void openWindow(long now) {
+        windowStart = now;
+        windowSpent = 0L;
+        windowOver = false;
+    }
+
+    private boolean fitsWindow() {
+        return budget <= 0 || windowSpent == 0 || windowSpent + cost <= budget;
+    }
+
+    private void measure(T item, int what) {
+        long start = System.nanoTime();
+        delivery.deliver(item, what);
+        long spent = System.nanoTime() - start;
+
+        cost += (spent - cost) / 8;
+        windowSpent += spent;
+        if (!windowOver && budget > 0 && windowSpent > budget) {
+            windowOver = true;
+            overBudgetCount.incrementAndGet();
+        }
+    }
+}
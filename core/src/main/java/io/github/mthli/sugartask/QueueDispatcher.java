@@ -0,0 +1,178 @@
+/*
+ * Copyright 2015 Matthew Lee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.mthli.sugartask;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * TaskEngine.Dispatcher for plain JVM,
+ * MainThread is whichever thread calls runUntil()/runPending(), like a Looper which is looped by hand.
+ * A frame is simply the next turn of the queue, and idle is a turn with no due event.
+ *
+ * 用于普通 JVM 的 TaskEngine.Dispatcher ，
+ * 主线程就是调用 runUntil()/runPending() 的线程，就像一个手动循环的 Looper 。
+ * 一帧就是队列的下一轮，空闲就是没有到期事件的一轮。
+ */
+public class QueueDispatcher implements TaskEngine.Dispatcher {
+    public interface Condition {
+        boolean done();
+    }
+
+    private static class Event {
+        private TaskEngine<?> engine;
+
+        private int what;
+
+        private Object obj;
+
+        private boolean frame;
+
+        private long when;
+
+        private long sequence;
+    }
+
+    private static class EventComparator implements Comparator<Event> {
+        @Override
+        public int compare(Event lhs, Event rhs) {
+            if (lhs.when != rhs.when) {
+                return lhs.when < rhs.when ? -1 : 1;
+            }
+
+            return lhs.sequence < rhs.sequence ? -1 : (lhs.sequence == rhs.sequence ? 0 : 1);
+        }
+    }
+
+    private PriorityQueue<Event> queue = new PriorityQueue<>(64, new EventComparator());
+
+    private long sequence = 0L;
+
+    private ArrayDeque<TaskEngine<?>> idleQueue = new ArrayDeque<>();
+
+    @Override
+    public void dispatch(TaskEngine<?> engine, int what, Object obj, long delayMillis) {
+        Event event = new Event();
+        event.engine = engine;
+        event.what = what;
+        event.obj = obj;
+        enqueue(event, delayMillis);
+    }
+
+    @Override
+    public void dispatchFrame(TaskEngine<?> engine) {
+        Event event = new Event();
+        event.engine = engine;
+        event.frame = true;
+        enqueue(event, 0);
+    }
+
+    @Override
+    public synchronized void dispatchIdle(TaskEngine<?> engine) {
+        idleQueue.offer(engine);
+        notifyAll();
+    }
+
+    /*
+     * Handle events on current thread until condition is done, waiting for new events if needed.
+     *
+     * 在当前线程中处理事件，直到 condition 完成，必要时等待新的事件。
+     */
+    public void runUntil(Condition condition) throws InterruptedException {
+        while (!condition.done()) {
+            Event event = next();
+            if (event != null) {
+                handle(event);
+                continue;
+            }
+
+            TaskEngine<?> engine = nextIdle();
+            if (engine != null) {
+                engine.flushIdle();
+            }
+        }
+    }
+
+    /*
+     * Handle every event which is due now, then the idle turns, without waiting.
+     *
+     * 处理所有已经到期的事件，然后是空闲时机，不会等待。
+     */
+    public void runPending() {
+        while (true) {
+            Event event;
+            while ((event = nextDue()) != null) {
+                handle(event);
+            }
+
+            TaskEngine<?> engine = nextIdle();
+            if (engine == null) {
+                return;
+            }
+
+            engine.flushIdle();
+        }
+    }
+
+    private synchronized void enqueue(Event event, long delayMillis) {
+        event.when = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis));
+        event.sequence = sequence++;
+        queue.offer(event);
+        notifyAll();
+    }
+
+    private synchronized Event nextDue() {
+        Event event = queue.peek();
+        return event != null && event.when <= System.nanoTime() ? queue.poll() : null;
+    }
+
+    private synchronized Event next() throws InterruptedException {
+        Event event = queue.peek();
+        if (event == null) {
+            if (idleQueue.isEmpty()) {
+                wait();
+            }
+
+            return null;
+        }
+
+        long delay = event.when - System.nanoTime();
+        if (delay > 0) {
+            if (idleQueue.isEmpty()) {
+                TimeUnit.NANOSECONDS.timedWait(this, delay);
+            }
+
+            return null;
+        }
+
+        return queue.poll();
+    }
+
+    private synchronized TaskEngine<?> nextIdle() {
+        return idleQueue.poll();
+    }
+
+    private void handle(Event event) {
+        if (event.frame) {
+            event.engine.flushFrame();
+        } else {
+            event.engine.handleMessage(event.what, event.obj);
+        }
+    }
+}
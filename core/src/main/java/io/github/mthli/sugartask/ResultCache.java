@@ -0,0 +1,167 @@
+/*
+ * Copyright 2015 Matthew Lee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.mthli.sugartask;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Memory-bounded cache for task results, keyed by task key,
+ * entries expire by TTL and the least recently used ones are evicted when it is too heavy.
+ *
+ * 有内存上限的任务结果缓存，以任务的 key 作为键，
+ * 条目会在 TTL 到期后失效，当缓存过重时最近最少使用的条目会被移除。
+ */
+public class ResultCache {
+    /*
+     * Measure how heavy a result is, for example bytes of a Bitmap,
+     * the default weigher counts every result as 1.
+     *
+     * 衡量一个结果有多重，比如 Bitmap 的字节数，
+     * 默认的 weigher 把每个结果都算作 1 。
+     */
+    public interface Weigher {
+        int weigh(String key, Object value);
+    }
+
+    static class Entry {
+        Object value;
+
+        private int weight;
+
+        private long expireAt;
+
+        private Entry(Object value, int weight, long expireAt) {
+            this.value = value;
+            this.weight = weight;
+            this.expireAt = expireAt;
+        }
+    }
+
+    private static final Weigher COUNT_WEIGHER = new Weigher() {
+        @Override
+        public int weigh(String key, Object value) {
+            return 1;
+        }
+    };
+
+    private LinkedHashMap<String, Entry> entryMap = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long maxWeight;
+
+    private long weight = 0;
+
+    private Weigher weigher;
+
+    private long hitCount = 0;
+
+    private long missCount = 0;
+
+    public ResultCache(long maxWeight) {
+        this(maxWeight, COUNT_WEIGHER);
+    }
+
+    public ResultCache(long maxWeight, Weigher weigher) {
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+    }
+
+    /*
+     * A result can be null, use lookup() when null result and miss must be told apart.
+     *
+     * 结果可能为 null ，当需要区分 null 结果和未命中时使用 lookup() 。
+     */
+    public Object get(String key) {
+        Entry entry = lookup(key);
+        return entry != null ? entry.value : null;
+    }
+
+    synchronized Entry lookup(String key) {
+        Entry entry = entryMap.get(key);
+        if (entry != null && entry.expireAt <= now()) {
+            entryMap.remove(key);
+            weight -= entry.weight;
+            entry = null;
+        }
+
+        if (entry == null) {
+            missCount++;
+        } else {
+            hitCount++;
+        }
+
+        return entry;
+    }
+
+    public synchronized void put(String key, Object value, long ttlMillis) {
+        int entryWeight = weigher.weigh(key, value);
+        remove(key);
+
+        if (entryWeight > maxWeight || ttlMillis <= 0) {
+            return;
+        }
+
+        entryMap.put(key, new Entry(value, entryWeight, now() + ttlMillis));
+        weight += entryWeight;
+        trimToWeight(maxWeight);
+    }
+
+    public synchronized void remove(String key) {
+        Entry entry = entryMap.remove(key);
+        if (entry != null) {
+            weight -= entry.weight;
+        }
+    }
+
+    public synchronized void clear() {
+        entryMap.clear();
+        weight = 0;
+    }
+
+    /*
+     * Evict least recently used entries until the cache is not heavier than maxWeight,
+     * for example trimToWeight(0) in onTrimMemory().
+     *
+     * 移除最近最少使用的条目，直到缓存的重量不超过 maxWeight ，
+     * 比如在 onTrimMemory() 中调用 trimToWeight(0) 。
+     */
+    public synchronized void trimToWeight(long maxWeight) {
+        Iterator<Map.Entry<String, Entry>> iterator = entryMap.entrySet().iterator();
+        while (weight > maxWeight && iterator.hasNext()) {
+            weight -= iterator.next().getValue().weight;
+            iterator.remove();
+        }
+    }
+
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2015 Matthew Lee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.mthli.sugartask;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/*
+ * Retry policy for Builder.retry(), a policy keeps no state of its own, so one policy can be shared by many tasks.
+ * The n-th retry waits initialMillis * 2^(n-1), at most maxMillis,
+ * and jitter takes away a random part of it, so failing tasks don't retry all at the same moment.
+ *
+ * 用于 Builder.retry() 的重试策略，策略本身不保存状态，所以一个策略可以被许多任务共享。
+ * 第 n 次重试等待 initialMillis * 2^(n-1) 毫秒，最多 maxMillis 毫秒，
+ * 并且 jitter 会随机减去其中的一部分，这样失败的任务就不会在同一时刻一起重试。
+ */
+public class RetryPolicy {
+    private static final double DEFAULT_JITTER = 0.5;
+
+    private static final Random RANDOM = new Random();
+
+    private int maxAttempts;
+
+    private long initialMillis;
+
+    private long maxMillis;
+
+    private double jitter = DEFAULT_JITTER;
+
+    private List<Class<? extends Exception>> retryList = new ArrayList<>();
+
+    /*
+     * maxAttempts counts the first run too, so maxAttempts = 3 means at most 2 retries.
+     *
+     * maxAttempts 包括第一次执行，所以 maxAttempts = 3 表示最多重试 2 次。
+     */
+    public RetryPolicy(int maxAttempts, long initialMillis, long maxMillis) {
+        this.maxAttempts = maxAttempts;
+        this.initialMillis = Math.max(0, initialMillis);
+        this.maxMillis = Math.max(this.initialMillis, maxMillis);
+    }
+
+    /*
+     * Only retry when the Exception is one of types, every Exception is retried when it is never called.
+     *
+     * 只有当 Exception 属于 types 之一时才重试，如果从未调用它，所有的 Exception 都会重试。
+     */
+    @SafeVarargs
+    public final RetryPolicy retryOn(Class<? extends Exception>... types) {
+        for (Class<? extends Exception> type : types) {
+            retryList.add(type);
+        }
+
+        return this;
+    }
+
+    /*
+     * Fraction of the backoff which may be taken away at random, in [0, 1], 0.5 by default.
+     *
+     * 退避时间中可以被随机减去的比例，取值范围为 [0, 1] ，默认为 0.5 。
+     */
+    public RetryPolicy jitter(double jitter) {
+        this.jitter = Math.max(0, Math.min(1, jitter));
+
+        return this;
+    }
+
+    /*
+     * attempts is how many times the task has already run.
+     *
+     * attempts 是任务已经执行的次数。
+     */
+    public boolean shouldRetry(Exception e, int attempts) {
+        if (attempts >= maxAttempts) {
+            return false;
+        }
+
+        if (retryList.isEmpty()) {
+            return true;
+        }
+
+        for (Class<? extends Exception> type : retryList) {
+            if (type.isInstance(e)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    public long backoffMillis(int attempts) {
+        long backoff = initialMillis;
+        for (int i = 1; i < attempts && backoff < maxMillis; i++) {
+            backoff *= 2;
+        }
+
+        backoff = Math.min(backoff, maxMillis);
+
+        return backoff - (long) (backoff * jitter * RANDOM.nextDouble());
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2015 Matthew Lee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.mthli.sugartask;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Bounded buffer of TaskEngine between the producer on WorkerThread and MainThread,
+ * only the first item after a drain wakes up MainThread, which takes everything buffered at once.
+ * The producer calls isFull() and add() while holding the lock of the channel, so it can wait() on it.
+ *
+ * TaskEngine 中后台线程的生产者和主线程之间的有界缓冲区，
+ * 只有每次取走之后的第一个数据会唤醒主线程，主线程一次取走所有缓冲的数据。
+ * 生产者在持有 channel 的锁时调用 isFull() 和 add() ，这样它就可以在 channel 上 wait() 。
+ */
+class TaskChannel {
+    private List<Object> buffer = new ArrayList<>();
+
+    private int capacity;
+
+    private boolean scheduled = false;
+
+    TaskChannel(int capacity) {
+        this.capacity = Math.max(1, capacity);
+    }
+
+    boolean isFull() {
+        return buffer.size() >= capacity;
+    }
+
+    /*
+     * Return true when MainThread should be woken up for this item.
+     *
+     * 需要为这个数据唤醒主线程时返回 true 。
+     */
+    boolean add(Object item) {
+        buffer.add(item);
+        if (scheduled) {
+            return false;
+        }
+
+        scheduled = true;
+
+        return true;
+    }
+
+    synchronized Object[] drain() {
+        Object[] items = buffer.toArray();
+        buffer.clear();
+        scheduled = false;
+        notifyAll();
+
+        return items;
+    }
+
+    synchronized void clear() {
+        buffer.clear();
+        notifyAll();
+    }
+}
@@ -0,0 +1,3342 @@
+/*
+ * Copyright 2015 Matthew Lee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.mthli.sugartask;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/*
+ * The pure Java core of SugarTask: task tables, scheduling, dedup, cache, composition and delivery.
+ * It knows nothing about Android, MainThread is whatever thread the Dispatcher delivers on,
+ * and M is the type of progress messages, android.os.Message for SugarTask.
+ *
+ * SugarTask 的纯 Java 核心：任务表、调度、去重、缓存、组合以及结果分发。
+ * 它不依赖 Android ，主线程就是 Dispatcher 分发消息所在的线程，
+ * M 是进度消息的类型，对于 SugarTask 来说就是 android.os.Message 。
+ */
+public class TaskEngine<M> {
+    /*
+     * WorkerThread interface,
+     * do what you want to do on background thread by implementing this interface.
+     *
+     * 后台线程接口，
+     * 通过实现这个接口，添加你想要的功能。
+     */
+    public interface TaskDescription {
+        Object onBackground();
+    }
+
+    /*
+     * MainThread interface,
+     * handle message from WorkerThread and update something in MainThread,
+     * such us progress.
+     *
+     * 主线程接口，
+     * 用于接收处理来自后台线程的消息，可用于更新 UI 。
+     */
+    public interface MessageListener<M> {
+        void handleMessage(M message);
+    }
+
+    /*
+     * MainThread interface,
+     * when WorkerThread finish without Exception,
+     * and context lifecycle safety,
+     * onFinish() will be called.
+     *
+     * 主线程接口，
+     * 当后台线程正常结束运行，且当前上下文环境处于安全的生命周期中，
+     * 这个接口中的方法将会被调用。
+     */
+    public interface FinishListener {
+        void onFinish(Object result);
+    }
+
+    /*
+     * MainThread interface,
+     * when WorkerThread end with Exception,
+     * and context lifecycle safety,
+     * onBroken() will be called.
+     *
+     * 主线程接口，
+     * 当后台线程因为异常结束运行，且当前上下文环境处于安全的生命周期中，
+     * 这个接口中的方法将会被调用。
+     */
+    public interface BrokenListener {
+        void onBroken(Exception e);
+    }
+
+    /*
+     * MainThread interface,
+     * used by next(), receive the items emitted by emit() in order, while the task is still running.
+     *
+     * 主线程接口，
+     * 用于 next() ，在任务仍在执行时，按顺序接收通过 emit() 发出的数据。
+     */
+    public interface NextListener {
+        void onNext(Object item);
+    }
+
+    /*
+     * MainThread interface,
+     * used by assignAll(), receive the results of the whole batch in one callback,
+     * results[i] and exceptions[i] belong to the i-th description, one of them is null.
+     *
+     * 主线程接口，
+     * 用于 assignAll() ，在一次回调中接收整个批次的结果，
+     * results[i] 和 exceptions[i] 属于第 i 个任务描述，两者之一为 null 。
+     */
+    public interface BatchListener {
+        void onFinish(Object[] results, Exception[] exceptions);
+    }
+
+    /*
+     * WorkerThread interface,
+     * when progress is coalesced, merge the pending message and the newer one into one message.
+     *
+     * 后台线程接口，
+     * 当进度消息被合并时，将尚未发送的消息和新的消息合并为一个消息。
+     */
+    public interface Combiner<M> {
+        M combine(M older, M newer);
+    }
+
+    /*
+     * WorkerThread interface,
+     * used by then(), receive the result of previous step on the same WorkerThread.
+     *
+     * 后台线程接口，
+     * 用于 then() ，在同一个后台线程中接收上一步的结果。
+     */
+    public interface Continuation {
+        Object onBackground(Object previous);
+    }
+
+    /*
+     * WorkerThread interface,
+     * used by zip(), combine the results of two tasks which run in parallel.
+     *
+     * 后台线程接口，
+     * 用于 zip() ，合并两个并行执行的任务的结果。
+     */
+    public interface Zipper {
+        Object zip(Object first, Object second);
+    }
+
+    /*
+     * WorkerThread interface,
+     * used by mapReduce(), turn one chunk of the input into a partial result,
+     * chunks of the same task run on several WorkerThreads at once.
+     *
+     * 后台线程接口，
+     * 用于 mapReduce() ，将输入中的一块转换为部分结果，
+     * 同一个任务的多个块会同时在多个后台线程中执行。
+     */
+    public interface Mapper {
+        Object map(List<?> chunk);
+    }
+
+    /*
+     * WorkerThread interface,
+     * used by mapReduce(), combine two partial results, first comes from the chunks before second,
+     * it must be associative, but doesn't need to be commutative.
+     *
+     * 后台线程接口，
+     * 用于 mapReduce() ，合并两个部分结果， first 来自 second 之前的块，
+     * 它必须满足结合律，但不需要满足交换律。
+     */
+    public interface Reducer {
+        Object reduce(Object first, Object second);
+    }
+
+    /*
+     * Implemented by large results, such as BufferPool.Buffer,
+     * release() is called when the result will never be delivered,
+     * because its owner stopped, or it was cancelled, timed out or preempted,
+     * so the payload goes back to its pool instead of waiting for the message queue to drain.
+     * Once delivered, the result belongs to FinishListener, and to only one of them, see Builder.key().
+     *
+     * 由大结果实现，比如 BufferPool.Buffer ，
+     * 当结果永远不会被发送时调用 release() ，
+     * 原因可能是它的宿主停止了，或者它被取消、超时或者抢占，
+     * 这样负载就能回到它的池中，而不是等待消息队列处理完毕。
+     * 一旦被发送，结果就属于 FinishListener ，并且只属于其中一个，参考 Builder.key() 。
+     */
+    public interface Releasable {
+        void release();
+    }
+
+    /*
+     * Decide where and when a task runs,
+     * use setScheduler() to replace the default TaskScheduler.
+     *
+     * 决定任务在哪里以及何时执行，
+     * 使用 setScheduler() 替换默认的 TaskScheduler 。
+     */
+    public interface Scheduler {
+        void schedule(Runnable runnable, int priority, int type);
+    }
+
+    /*
+     * Carry events from any thread to MainThread, in order,
+     * MainThread passes them back by engine.handleMessage() and engine.flushFrame().
+     * On Android it is a Handler of the main Looper, on plain JVM see QueueDispatcher.
+     *
+     * 将事件从任意线程按顺序传递到主线程，
+     * 主线程通过 engine.handleMessage() 和 engine.flushFrame() 将它们交还给引擎。
+     * 在 Android 中它是主线程 Looper 的 Handler ，在普通 JVM 中参考 QueueDispatcher 。
+     */
+    public interface Dispatcher {
+        /*
+         * Call engine.handleMessage(what, obj) on MainThread after delayMillis.
+         *
+         * 在 delayMillis 毫秒之后，于主线程中调用 engine.handleMessage(what, obj) 。
+         */
+        void dispatch(TaskEngine<?> engine, int what, Object obj, long delayMillis);
+
+        /*
+         * Call engine.flushFrame() on MainThread at the next display frame.
+         *
+         * 在下一帧时，于主线程中调用 engine.flushFrame() 。
+         */
+        void dispatchFrame(TaskEngine<?> engine);
+
+        /*
+         * Call engine.flushIdle() on MainThread once it has nothing else to do,
+         * only called on MainThread.
+         *
+         * 在主线程空闲时，于主线程中调用 engine.flushIdle() ，
+         * 只会在主线程中被调用。
+         */
+        void dispatchIdle(TaskEngine<?> engine);
+    }
+
+    /*
+     * Listener of task timings and counters, set it by setTracer(), see TaskMetrics.
+     * The tracer is captured when a work is scheduled, so without tracer nothing is timed at all.
+     * Times are in nanoseconds, -1 when the phase never happened, such as a rejected work.
+     *
+     * 任务耗时和计数的监听者，通过 setTracer() 设置，参考 TaskMetrics 。
+     * tracer 在 work 被调度时确定，所以没有 tracer 时不会进行任何计时。
+     * 时间以纳秒为单位，当某个阶段没有发生时为 -1 ，例如被拒绝的 work 。
+     */
+    public interface Tracer {
+        /*
+         * WorkerThread, around every piece of onBackground()/then()/zip()/allOf().
+         *
+         * 后台线程，包围 onBackground()/then()/zip()/allOf() 的每一个部分。
+         */
+        void beginRun(String tag);
+
+        void endRun(String tag);
+
+        /*
+         * MainThread, once per work when its result is delivered.
+         *
+         * 主线程，每个 work 在结果发送时调用一次。
+         */
+        void onDelivered(String tag, boolean broken, long queueNanos, long runNanos, long deliveryNanos);
+
+        /*
+         * MainThread, a task is cancelled by its Handle.
+         *
+         * 主线程，任务被它的 Handle 取消。
+         */
+        void onCancelled(String tag);
+
+        /*
+         * MainThread, a task is thrown away because its owner stopped.
+         *
+         * 主线程，任务因为宿主停止而被丢弃。
+         */
+        void onDropped(String tag);
+    }
+
+    public class Register {
+        private Scope scope;
+
+        private Register(Scope scope) {
+            this.scope = scope;
+        }
+
+        /*
+         * Must.
+         *
+         * 必须。
+         */
+        public Builder assign(TaskDescription description) {
+            Task task = obtainTask(scope, obtainWork(description));
+            scope.taskTable.add(task);
+
+            return task.builder;
+        }
+
+        /*
+         * Must, instead of assign() for many small descriptions,
+         * the batch owns one task record, one Handle and one hand-off to Scheduler,
+         * and runs on at most parallelism WorkerThreads which take descriptions one by one.
+         *
+         * 必须，用于替代 assign() 提交大量小的任务描述，
+         * 整个批次只占用一条任务记录、一个 Handle 以及一次向 Scheduler 的提交，
+         * 并且最多在 parallelism 个后台线程中执行，这些线程逐个领取任务描述。
+         */
+        public Batch assignAll(List<? extends TaskDescription> descriptions) {
+            Work work = obtainWork(null);
+            work.items = new TaskItems(new ArrayList<TaskDescription>(descriptions));
+
+            Task task = obtainTask(scope, work);
+            scope.taskTable.add(task);
+
+            return new Batch(task);
+        }
+
+        /*
+         * Must, instead of assign() for data-parallel work over a large list, such as parsing thousands of records.
+         * The input is split into chunks, WorkerThreads take chunks one by one and map them by mapper,
+         * then the partial results are reduced by reducer in the order of the chunks,
+         * and only the final value comes back to FinishListener, null for an empty input.
+         * Cancellation and timeout are checked before every chunk, a chunk which throws breaks the task.
+         *
+         * 必须，用于替代 assign() 对大列表进行数据并行的处理，比如解析上千条记录。
+         * 输入会被分为多个块，后台线程逐个领取块并通过 mapper 转换，
+         * 然后按照块的顺序通过 reducer 合并部分结果，
+         * 只有最终的值会回到 FinishListener ，输入为空时为 null 。
+         * 每个块开始之前都会检查取消和超时，任意一个块抛出异常都会使任务异常结束。
+         */
+        public Builder mapReduce(List<?> input, Mapper mapper, Reducer reducer) {
+            Work work = obtainWork(null);
+            work.split = new TaskSplit(new ArrayList<>(input), mapper, reducer);
+
+            Task task = obtainTask(scope, work);
+            scope.taskTable.add(task);
+
+            return task.builder;
+        }
+    }
+
+    /*
+     * Builder is reused with its task record,
+     * so don't keep it after execute().
+     *
+     * Builder 会随着它的任务记录一起被复用，
+     * 所以不要在 execute() 之后继续持有它。
+     */
+    public class Builder {
+        private Task task;
+
+        private Builder(Task task) {
+            this.task = task;
+        }
+
+        /*
+         * Optional.
+         *
+         * 可选。
+         */
+        public Builder handle(MessageListener<M> listener) {
+            task.messageListener = listener;
+
+            return this;
+        }
+
+        /*
+         * Optional.
+         *
+         * 可选。
+         */
+        public Builder coalesce() {
+            return coalesce(null, 0);
+        }
+
+        /*
+         * Optional.
+         *
+         * 可选。
+         */
+        public Builder coalesce(Combiner<M> combiner) {
+            return coalesce(combiner, 0);
+        }
+
+        /*
+         * Optional.
+         * Keep only the latest message posted by this task (or merge them by combiner),
+         * and deliver it at most once per display frame, or once per intervalMillis when intervalMillis > 0.
+         *
+         * 可选。
+         * 只保留这个任务最后发送的消息（或者通过 combiner 合并它们），
+         * 每一帧最多发送一次；当 intervalMillis > 0 时，每 intervalMillis 毫秒最多发送一次。
+         */
+        public Builder coalesce(Combiner<M> combiner, long intervalMillis) {
+            task.work.progress = new TaskProgress<>(combiner, intervalMillis);
+
+            return this;
+        }
+
+        /*
+         * Optional.
+         *
+         * 可选。
+         */
+        public Builder priority(int priority) {
+            task.work.priority = priority;
+
+            return this;
+        }
+
+        /*
+         * Optional, TYPE_CPU or TYPE_IO.
+         *
+         * 可选， TYPE_CPU 或者 TYPE_IO 。
+         */
+        public Builder type(int type) {
+            task.work.type = type;
+
+            return this;
+        }
+
+        /*
+         * Optional.
+         * If a task with the same key is still running, attach to it instead of running again,
+         * every attached listener gets the single result,
+         * and the attached task follows the priority and progress settings of the running one.
+         * A Releasable result has a single owner, so only the first task still waiting gets it,
+         * the other tasks get IllegalStateException in BrokenListener instead of a shared buffer.
+         *
+         * 可选。
+         * 如果拥有相同 key 的任务仍在执行，则附加到这个任务上而不是重新执行，
+         * 所有附加的监听者都会得到同一个结果，
+         * 并且附加的任务沿用正在执行的任务的优先级和进度设置。
+         * Releasable 结果只有一个所有者，所以只有第一个仍在等待的任务会得到它，
+         * 其他任务会在 BrokenListener 中得到 IllegalStateException ，而不是一个共享的 buffer 。
+         */
+        public Builder key(String key) {
+            task.key = key;
+            task.work.key = key;
+
+            return this;
+        }
+
+        /*
+         * Optional.
+         * Receive items emitted by emit() in onBackground() before the final result,
+         * at most 16 items wait for MainThread, emit() blocks the producer when they are full.
+         *
+         * 可选。
+         * 在最终结果之前，接收 onBackground() 中通过 emit() 发出的数据，
+         * 最多 16 个数据等待主线程处理，当它们满了时 emit() 会阻塞生产者。
+         */
+        public Builder next(NextListener listener) {
+            return next(listener, DEFAULT_CAPACITY);
+        }
+
+        /*
+         * Optional.
+         * With key(), a task which attaches to a running stream only gets the items emitted after it attaches.
+         *
+         * 可选。
+         * 和 key() 一起使用时，附加到正在执行的流上的任务只能得到它附加之后发出的数据。
+         */
+        public Builder next(NextListener listener, int capacity) {
+            task.nextListener = listener;
+            task.work.channel = new TaskChannel(capacity);
+
+            return this;
+        }
+
+        /*
+         * Optional.
+         * Group the timings of this task under tag for Tracer, the key is used when there is no tag.
+         *
+         * 可选。
+         * 将这个任务的耗时归入 Tracer 的 tag 分组中，没有 tag 时使用 key 。
+         */
+        public Builder tag(String tag) {
+            task.work.tag = tag;
+
+            return this;
+        }
+
+        /*
+         * Optional.
+         * At most maxConcurrency tasks of group are in flight at once, such as image decodes or disk-heavy work,
+         * the others wait in the queue of group on MainThread without taking a WorkerThread,
+         * and start in the order they were executed when a slot is free.
+         * A slot is taken from scheduled until the result is delivered or the task is cancelled,
+         * a task waiting for retry() keeps its slot. The last maxConcurrency set for group wins.
+         *
+         * 可选。
+         * group 中同时最多有 maxConcurrency 个任务在执行，例如图片解码或者大量读写磁盘的任务，
+         * 其余的任务在主线程中的 group 队列里等待，不会占用后台线程，
+         * 当有空位时按照 execute() 的顺序启动。
+         * 任务从被调度开始占用空位，直到结果被发送或者任务被取消，等待 retry() 的任务会保留它的空位。
+         * 对同一个 group 最后设置的 maxConcurrency 生效。
+         */
+        public Builder group(String group, int maxConcurrency) {
+            task.work.group = obtainGroup(group, maxConcurrency);
+
+            return this;
+        }
+
+        /*
+         * Optional, the description must be Serializable and setJournal() must be called before.
+         * The task is written to the journal before it runs and keeps running after its owner stops,
+         * if the process dies first, it runs again as a deferred task after the next setJournal().
+         * Only the description is kept, so it can't be used with then()/zip()/allOf(),
+         * and listeners of a replayed task are gone, do the real work in onBackground().
+         *
+         * 可选，任务描述必须是 Serializable 的，并且需要事先调用 setJournal() 。
+         * 任务在执行之前会被写入日志，并且在宿主停止之后继续执行，
+         * 如果进程先一步死亡，它会在下一次 setJournal() 之后作为延迟任务重新执行。
+         * 只有任务描述会被保存，所以不能和 then()/zip()/allOf() 一起使用，
+         * 并且重新执行的任务没有监听者，请在 onBackground() 中完成真正的工作。
+         */
+        public Builder durable() {
+            task.work.durable = true;
+
+            return this;
+        }
+
+        /*
+         * Optional.
+         * Hold the task in the deferred tier, for prefetch and cache warm-up,
+         * it only starts when MainThread is idle and no other task is in flight, at most getDeferredLimit() at once,
+         * and it runs with PRIORITY_LOW.
+         * When a foreground task executes, running deferred tasks are interrupted, isCancelled() turns true,
+         * and they go back to the front of the tier to run again from the first step, so keep them restartable.
+         * A foreground task with the same key promotes the deferred task.
+         *
+         * 可选。
+         * 将任务放入延迟层，用于预加载和缓存预热，
+         * 它只会在主线程空闲且没有其他任务在执行时启动，同时最多执行 getDeferredLimit() 个，
+         * 并且使用 PRIORITY_LOW 执行。
+         * 当前台任务执行时，正在执行的延迟任务会被中断， isCancelled() 变为 true ，
+         * 它们会回到延迟层的最前面，之后从第一步开始重新执行，所以请保证它们可以重新开始。
+         * 拥有相同 key 的前台任务会提升这个延迟任务。
+         */
+        public Builder defer() {
+            task.work.deferred = true;
+            task.work.priority = PRIORITY_LOW;
+
+            return this;
+        }
+
+        /*
+         * Optional.
+         * Interrupt the task when it is still not done timeoutMillis after execute(),
+         * BrokenListener gets TaskTimeoutException, a task still queued by then never runs.
+         * timeoutMillis <= 0 times the task out at once, it never runs,
+         * unless a cached or parked result of its key is delivered first.
+         * A task which attaches to a running key follows the timeout of the running one.
+         *
+         * 可选。
+         * 当任务在 execute() 之后 timeoutMillis 毫秒仍未结束时中断它，
+         * BrokenListener 会得到 TaskTimeoutException ，届时仍在排队的任务不会再执行。
+         * timeoutMillis <= 0 会让任务立刻超时，它永远不会执行，
+         * 除非它的 key 有缓存的或者被停放的结果先被发送。
+         * 附加到正在执行的 key 上的任务沿用正在执行的任务的超时设置。
+         */
+        public Builder timeout(long timeoutMillis) {
+            task.work.timeout = Math.max(0, timeoutMillis);
+
+            return this;
+        }
+
+        /*
+         * Optional, like timeout(), but at the absolute time timeMillis of System.currentTimeMillis(),
+         * so the time before execute() counts too, and a deadline already passed times the task out at once.
+         * The deadline is checked against the wall clock again when the task starts,
+         * because the uptime clock of the timer stops while the device sleeps.
+         * With both timeout() and deadline(), whichever comes first wins.
+         *
+         * 可选，和 timeout() 相同，但使用 System.currentTimeMillis() 的绝对时间 timeMillis ，
+         * 所以 execute() 之前的时间也会被计算在内，已经过去的截止时间会让任务立刻超时。
+         * 任务开始执行时会再次用系统时钟检查截止时间，
+         * 因为定时器使用的开机时钟在设备休眠时会停止。
+         * 同时使用 timeout() 和 deadline() 时，以先到者为准。
+         */
+        public Builder deadline(long timeMillis) {
+            task.work.deadline = Math.max(0, timeMillis);
+
+            return this;
+        }
+
+        /*
+         * Optional.
+         * When onBackground() (or any step) throws, run the task again from the first step after the backoff of policy,
+         * the backoff waits on a timer, not on WorkerThread,
+         * BrokenListener is only called when the last attempt fails or the Exception is not retried.
+         * Progress and items already delivered are not taken back.
+         *
+         * 可选。
+         * 当 onBackground() （或者任意一个步骤）抛出异常时，在 policy 的退避时间之后从第一步开始重新执行任务，
+         * 退避时间在定时器上等待，而不是占用后台线程，
+         * 只有当最后一次尝试失败或者异常不需要重试时，才会调用 BrokenListener 。
+         * 已经发送的进度和数据不会被撤回。
+         */
+        public Builder retry(RetryPolicy policy) {
+            task.work.retryPolicy = policy;
+
+            return this;
+        }
+
+        /*
+         * Optional, must be used with key().
+         * Keep the result in getCache() for ttlMillis,
+         * a task with the same key gets the cached result without running again.
+         * A Releasable result is never cached, it belongs to the FinishListener it is delivered to.
+         *
+         * 可选，必须和 key() 一起使用。
+         * 将结果在 getCache() 中保存 ttlMillis 毫秒，
+         * 拥有相同 key 的任务会直接得到缓存的结果，而不会再次执行。
+         * Releasable 的结果永远不会被缓存，它属于接收它的 FinishListener 。
+         */
+        public Builder cache(long ttlMillis) {
+            task.work.ttl = ttlMillis;
+
+            return this;
+        }
+
+        /*
+         * Optional.
+         * Run continuation after the previous step on WorkerThread, with the result of previous step,
+         * only the final result comes back to MainThread.
+         *
+         * 可选。
+         * 在后台线程中，于上一步之后执行 continuation ，并传入上一步的结果，
+         * 只有最终的结果会回到主线程。
+         */
+        public Builder then(Continuation continuation) {
+            task.work.stages().add(new TaskStage(continuation));
+
+            return this;
+        }
+
+        /*
+         * Optional.
+         * Run other in parallel with the current step, and combine both results by zipper.
+         *
+         * 可选。
+         * 与当前步骤并行执行 other ，并通过 zipper 合并两者的结果。
+         */
+        public Builder zip(TaskDescription other, Zipper zipper) {
+            TaskStage stage = task.work.lastStage();
+            if (!stage.branchList.isEmpty()) {
+                throw new IllegalStateException("zip() combines exactly two steps");
+            }
+
+            stage.branchList.add(other);
+            stage.zipper = zipper;
+            task.work.ensureRunners(2);
+
+            return this;
+        }
+
+        /*
+         * Optional.
+         * Run others in parallel with the current step,
+         * the result of this step becomes Object[] in the order they were added.
+         *
+         * 可选。
+         * 与当前步骤并行执行 others ，
+         * 这一步的结果会变成按照添加顺序排列的 Object[] 。
+         */
+        public Builder allOf(TaskDescription... others) {
+            TaskStage stage = task.work.lastStage();
+            if (stage.zipper != null) {
+                throw new IllegalStateException("allOf() can't be used with zip() in the same step");
+            }
+
+            stage.branchList.addAll(Arrays.asList(others));
+            task.work.ensureRunners(stage.branchList.size() + 1);
+
+            return this;
+        }
+
+        /*
+         * Optional.
+         *
+         * 可选。
+         */
+        public Builder finish(FinishListener listener) {
+            task.finishListener = listener;
+
+            return this;
+        }
+
+        /*
+         * Optional.
+         *
+         * 可选。
+         */
+        public Builder broken(BrokenListener listener) {
+            task.brokenListener = listener;
+
+            return this;
+        }
+
+        /*
+         * Must.
+         *
+         * 必须。
+         */
+        public Handle execute() {
+            Work work = task.work;
+            if (work.ttl > 0 && work.key == null) {
+                throw new IllegalStateException("cache() must be used with key()");
+            }
+
+            if (work.split != null && work.stages != null) {
+                throw new IllegalStateException("mapReduce() can't be used with then()/zip()/allOf()");
+            }
+
+            if (work.durable && (journal == null || work.stages != null || !(work.description instanceof Serializable))) {
+                throw new IllegalStateException("durable() needs setJournal(), a Serializable description and no then()/zip()/allOf()");
+            }
+
+            Task parked = task.key != null ? claimParked(task.scope, task.key) : null;
+            if (parked != null) {
+                int resultWhat = parked.resultWhat;
+                Object result = parked.result;
+                recycleTask(parked);
+
+                if (resultWhat != 0) {
+                    work.attach(task);
+                    work.result = result;
+                    sendEarly(work, resultWhat);
+
+                    return new Handle(task);
+                }
+            }
+
+            ResultCache.Entry entry = work.ttl > 0 ? cache.lookup(work.key) : null;
+            if (entry != null) {
+                work.attach(task);
+                work.result = entry.value;
+                sendEarly(work, MESSAGE_FINISH);
+
+                return new Handle(task);
+            }
+
+            Work flight = work.key != null ? flightMap.get(work.key) : null;
+            if (flight != null) {
+                boolean deferred = work.deferred;
+                int priority = work.priority;
+
+                // A replayed work hands its record over to the work it joins.
+                // 被重放的 work 将它的记录交给它所加入的 work 。
+                if (flight.journalId == 0) {
+                    flight.journalId = work.journalId;
+                    work.journalId = 0;
+                }
+
+                completeJournal(work);
+                recycleWork(work);
+                task.work = flight;
+                flight.attach(task);
+
+                if (flight.deferred && !deferred) {
+                    promoteWork(flight, priority);
+                }
+
+                return new Handle(task);
+            }
+
+            work.attach(task);
+            if (work.key != null) {
+                flightMap.put(work.key, work);
+            }
+
+            if (work.split != null) {
+                work.ensureRunners(work.type == TYPE_IO ? TaskScheduler.IO_THREADS : TaskScheduler.CPU_THREADS);
+            }
+
+            if (work.durable && work.journalId == 0) {
+                try {
+                    work.journalId = journal.append(work.description);
+                } catch (IOException e) {
+                    work.result = e;
+                    sendEarly(work, MESSAGE_BROKEN);
+
+                    return new Handle(task);
+                }
+            }
+
+            Tracer tracer = TaskEngine.this.tracer;
+            if (tracer != null) {
+                work.tag = work.tag != null ? work.tag : work.key;
+                work.trace = new TaskTrace(tracer, work.tag);
+            }
+
+            if (work.deadline >= 0) {
+                long remaining = Math.max(0, work.deadline - System.currentTimeMillis());
+                work.timeout = work.timeout >= 0 ? Math.min(work.timeout, remaining) : remaining;
+            }
+
+            if (work.timeout >= 0) {
+                work.expireAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(work.timeout);
+                Envelope envelope = obtainEnvelope(work, null);
+                envelope.index = work.generation;
+                dispatcher.dispatch(TaskEngine.this, MESSAGE_TIMEOUT, envelope, work.timeout);
+            }
+
+            if (work.deferred) {
+                deferWork(work);
+                return new Handle(task);
+            }
+
+            activateWork(work);
+
+            try {
+                scheduleWork(work);
+            } catch (RejectedExecutionException e) {
+                work.result = e;
+                sendEarly(work, MESSAGE_BROKEN);
+            }
+
+            return new Handle(task);
+        }
+    }
+
+    public class Batch {
+        private Task task;
+
+        private int parallelism = 0;
+
+        private Batch(Task task) {
+            this.task = task;
+        }
+
+        /*
+         * Optional, messages posted by any description of the batch come here.
+         *
+         * 可选，批次中任意任务描述发送的消息都会来到这里。
+         */
+        public Batch handle(MessageListener<M> listener) {
+            task.messageListener = listener;
+
+            return this;
+        }
+
+        /*
+         * Optional.
+         *
+         * 可选。
+         */
+        public Batch priority(int priority) {
+            task.work.priority = priority;
+
+            return this;
+        }
+
+        /*
+         * Optional, TYPE_CPU or TYPE_IO.
+         *
+         * 可选， TYPE_CPU 或者 TYPE_IO 。
+         */
+        public Batch type(int type) {
+            task.work.type = type;
+
+            return this;
+        }
+
+        /*
+         * Optional.
+         *
+         * 可选。
+         */
+        public Batch tag(String tag) {
+            task.work.tag = tag;
+
+            return this;
+        }
+
+        /*
+         * Optional, how many WorkerThreads the batch may use at most,
+         * TaskScheduler.CPU_THREADS or TaskScheduler.IO_THREADS by type when not set.
+         *
+         * 可选，批次最多可以使用多少个后台线程，
+         * 不设置时按照 type 使用 TaskScheduler.CPU_THREADS 或者 TaskScheduler.IO_THREADS 。
+         */
+        public Batch parallelism(int parallelism) {
+            this.parallelism = parallelism;
+
+            return this;
+        }
+
+        /*
+         * Optional, called once per description as soon as it is done,
+         * every call wakes up MainThread, use finishAll() instead when you only need all of them.
+         *
+         * 可选，每个任务描述结束时立即调用一次，
+         * 每次调用都会唤醒主线程，如果只需要全部的结果，请使用 finishAll() 。
+         */
+        public Batch finish(FinishListener listener) {
+            task.finishListener = listener;
+
+            return this;
+        }
+
+        /*
+         * Optional, called once per broken description.
+         *
+         * 可选，每个异常结束的任务描述调用一次。
+         */
+        public Batch broken(BrokenListener listener) {
+            task.brokenListener = listener;
+
+            return this;
+        }
+
+        /*
+         * Optional, called once when every description is done.
+         *
+         * 可选，当所有的任务描述都结束时调用一次。
+         */
+        public Batch finishAll(BatchListener listener) {
+            task.batchListener = listener;
+
+            return this;
+        }
+
+        /*
+         * Must.
+         *
+         * 必须。
+         */
+        public Handle execute() {
+            Work work = task.work;
+            TaskItems items = work.items;
+            int size = items.descriptions.size();
+            int runners = parallelism > 0 ? parallelism
+                    : (work.type == TYPE_IO ? TaskScheduler.IO_THREADS : TaskScheduler.CPU_THREADS);
+
+            items.results = new Object[size];
+            items.exceptions = new Exception[size];
+            items.cursor.set(0);
+            items.each = task.finishListener != null || task.brokenListener != null;
+            work.ensureRunners(Math.max(1, Math.min(size, runners)));
+            items.pending.set(size + work.runners.length());
+            work.attach(task);
+
+            Handle handle = new Handle(task);
+            if (size == 0) {
+                work.result = items.results;
+                sendEarly(work, MESSAGE_FINISH);
+
+                return handle;
+            }
+
+            Tracer tracer = TaskEngine.this.tracer;
+            if (tracer != null) {
+                work.trace = new TaskTrace(tracer, work.tag);
+            }
+
+            activateWork(work);
+
+            try {
+                scheduler.schedule(work, work.priority, work.type);
+            } catch (RejectedExecutionException e) {
+                for (int i = 0; i < size; i++) {
+                    items.exceptions[i] = e;
+                    if (items.each) {
+                        sendItem(work, i);
+                    }
+                }
+
+                work.result = items.results;
+                sendEarly(work, MESSAGE_FINISH);
+            }
+
+            return handle;
+        }
+    }
+
+    /*
+     * Returned by execute(), use it to cancel the task before its context stops.
+     *
+     * 由 execute() 返回，用于在上下文环境停止之前取消任务。
+     */
+    public class Handle {
+        private Task task;
+
+        private int id;
+
+        private Handle(Task task) {
+            this.task = task;
+            this.id = task.id;
+        }
+
+        /*
+         * Interrupt the task if it is running, skip it if it is still queued,
+         * no callback will be called after cancel().
+         * If other callers are attached to the same key, the task keeps running for them.
+         *
+         * 如果任务正在执行则中断它，如果任务仍在排队则跳过它，
+         * 调用 cancel() 之后不会再有任何回调。
+         * 如果还有其他调用者附加在相同的 key 上，任务会为它们继续执行。
+         */
+        public void cancel() {
+            if (task.id == id && task.scope.taskTable.remove(task)) {
+                Tracer tracer = TaskEngine.this.tracer;
+                if (tracer != null) {
+                    tracer.onCancelled(tagOf(task));
+                }
+
+                detachTask(task);
+                dispatchUnregister(task.scope);
+            }
+        }
+
+        /*
+         * Task record is recycled after its result is delivered,
+         * the id tells us whether the record still belongs to this handle.
+         *
+         * 任务记录在结果发送之后会被回收，
+         * 通过 id 可以知道这条记录是否仍然属于这个 handle 。
+         */
+        public boolean isCancelled() {
+            return task.id == id && task.cancelled;
+        }
+    }
+
+    /*
+     * Every owner (Activity/Fragment on Android) owns a scope,
+     * the scope holds its own task table, so stopping one owner only tears down its own tasks.
+     * kind is opaque to the engine, it is handed back by onScopeEmpty().
+     *
+     * 每个宿主（在 Android 中即 Activity/Fragment ）都拥有一个 scope ，
+     * scope 持有属于它自己的任务表，所以一个宿主停止时只会清除它自己的任务。
+     * kind 对引擎来说没有含义，它会通过 onScopeEmpty() 交还给调用者。
+     */
+    public class Scope {
+        private int kind;
+
+        private Object owner;
+
+        private TaskTable taskTable = new TaskTable();
+
+        private Register register;
+
+        /*
+         * True when the owner is being recreated by configuration change,
+         * the scope waits in its retained hook for the new owner.
+         *
+         * 当宿主因为配置变化被重建时为 true ，
+         * scope 会在它被保留的 hook 中等待新的宿主。
+         */
+        private boolean parked = false;
+
+        private Scope(int kind, Object owner) {
+            this.kind = kind;
+            this.owner = owner;
+        }
+
+        public boolean isParked() {
+            return parked;
+        }
+    }
+
+    /*
+     * Array-backed task table, every task remembers its own slot,
+     * so add/remove/contains need no boxing and no map entry.
+     * Only touched on MainThread.
+     *
+     * 基于数组的任务表，每个任务记住它自己所在的槽位，
+     * 所以添加/移除/查找都不需要装箱，也不需要 map 的节点。
+     * 只在主线程中访问。
+     */
+    private class TaskTable {
+        private Object[] slots = new Object[4];
+
+        private int size = 0;
+
+        private void add(Task task) {
+            if (size == slots.length) {
+                slots = Arrays.copyOf(slots, size * 2);
+            }
+
+            task.slot = size;
+            slots[size++] = task;
+        }
+
+        /*
+         * Move the last task into the removed slot,
+         * so iterate from the end when removing while iterating.
+         *
+         * 将最后一个任务移动到被移除的槽位上，
+         * 所以在遍历的同时移除时，需要从后往前遍历。
+         */
+        private boolean remove(Task task) {
+            if (!contains(task)) {
+                return false;
+            }
+
+            int slot = task.slot;
+            Task last = get(--size);
+            slots[slot] = last;
+            last.slot = slot;
+            slots[size] = null;
+            task.slot = -1;
+
+            return true;
+        }
+
+        private boolean contains(Task task) {
+            return task.slot >= 0 && task.slot < size && slots[task.slot] == task;
+        }
+
+        @SuppressWarnings("unchecked")
+        private Task get(int index) {
+            return (Task) slots[index];
+        }
+
+        private int size() {
+            return size;
+        }
+
+        private void clear() {
+            for (int i = 0; i < size; i++) {
+                get(i).slot = -1;
+                slots[i] = null;
+            }
+
+            size = 0;
+        }
+    }
+
+    /*
+     * One record per task, keeps the work and callbacks together,
+     * records are pooled and reused after their results are delivered.
+     *
+     * 每个任务对应一条记录，任务的执行和回调保存在一起，
+     * 记录会被放入池中，在结果发送之后被复用。
+     */
+    private class Task {
+        private Scope scope;
+
+        private int id;
+
+        private int slot = -1;
+
+        private String key;
+
+        private Work work;
+
+        private MessageListener<M> messageListener;
+
+        private FinishListener finishListener;
+
+        private BrokenListener brokenListener;
+
+        private NextListener nextListener;
+
+        private BatchListener batchListener;
+
+        private boolean cancelled = false;
+
+        /*
+         * Parked task has dropped the listeners of the old owner,
+         * a result which arrives before the new owner attaches is kept here.
+         *
+         * 被停放的任务已经丢弃了旧宿主的监听者，
+         * 在新宿主附加之前到达的结果会保存在这里。
+         */
+        private boolean parked = false;
+
+        private int resultWhat = 0;
+
+        private Object result;
+
+        private Builder builder;
+
+        /*
+         * Next task attached to the same work, or next free record in pool.
+         *
+         * 附加在同一个 work 上的下一个任务，或者池中的下一条空闲记录。
+         */
+        private Task next;
+    }
+
+    /*
+     * What really runs on WorkerThread,
+     * tasks with the same key share one work, so it runs only once.
+     * The work itself is the Runnable and the completion envelope,
+     * and it is pooled like task records.
+     *
+     * 真正在后台线程中执行的部分，
+     * 拥有相同 key 的任务共享同一个 work ，所以它只会执行一次。
+     * work 本身就是 Runnable 和结果的载体，
+     * 并且和任务记录一样会被放入池中复用。
+     */
+    private class Work extends TaskScheduler.Entry {
+        private TaskDescription description;
+
+        private String key;
+
+        private String tag;
+
+        private int type = TYPE_CPU;
+
+        private long ttl = 0;
+
+        /*
+         * Set by coalesce(), null when every message is delivered on its own.
+         *
+         * 通过 coalesce() 设置，每个消息都单独发送时为 null 。
+         */
+        private TaskProgress<M> progress;
+
+        /*
+         * STATE_QUEUED -> STATE_RUNNING -> STATE_DONE -> STATE_DELIVERED,
+         * or STATE_CANCELLED from STATE_QUEUED/STATE_RUNNING, every move is one CAS,
+         * so claiming, completing and cancelling never see each other half-done.
+         * retry() moves STATE_RUNNING back to STATE_QUEUED.
+         *
+         * STATE_QUEUED -> STATE_RUNNING -> STATE_DONE -> STATE_DELIVERED ，
+         * 或者从 STATE_QUEUED/STATE_RUNNING 进入 STATE_CANCELLED ，每一次转换都是一次 CAS ，
+         * 所以领取、结束和取消永远不会看到彼此完成了一半的状态。
+         * retry() 会将 STATE_RUNNING 移回 STATE_QUEUED 。
+         */
+        private AtomicInteger state = new AtomicInteger(STATE_QUEUED);
+
+        /*
+         * One runner per parallel branch, the runner publishes itself and leaves by CAS,
+         * cancelWork() swaps it to INTERRUPTING while it interrupts,
+         * so an interrupt never hits the next work of the same thread.
+         *
+         * 每个并行分支对应一个执行线程，执行线程通过 CAS 登记和离开，
+         * cancelWork() 在中断它时将它替换为 INTERRUPTING ，
+         * 这样中断就不会误伤同一线程执行的下一个 work 。
+         */
+        private AtomicReferenceArray<Object> runners = new AtomicReferenceArray<>(1);
+
+        /*
+         * Steps added by then()/zip()/allOf(), null for a plain task.
+         *
+         * 通过 then()/zip()/allOf() 添加的步骤，普通任务为 null 。
+         */
+        private List<TaskStage> stages;
+
+        /*
+         * Descriptions added by assignAll(), null for a plain task.
+         *
+         * 通过 assignAll() 添加的任务描述，普通任务为 null 。
+         */
+        private TaskItems items;
+
+        /*
+         * Input of mapReduce(), null for a plain task.
+         *
+         * mapReduce() 的输入，普通任务为 null 。
+         */
+        private TaskSplit split;
+
+        /*
+         * Items emitted by emit() and not taken by MainThread yet, null when the task has no next().
+         *
+         * 通过 emit() 发出但主线程尚未取走的数据，任务没有 next() 时为 null 。
+         */
+        private TaskChannel channel;
+
+        private Object result;
+
+        /*
+         * timeout and deadline are -1 when not set, deadline is in System.currentTimeMillis(),
+         * execute() turns both into the timeout left and expireAt in System.nanoTime(),
+         * generation changes every time the work is recycled, so a late timeout finds it out.
+         *
+         * 没有设置时 timeout 和 deadline 为 -1 ， deadline 使用 System.currentTimeMillis() ，
+         * execute() 将两者转换为剩余的超时时间和使用 System.nanoTime() 的 expireAt ，
+         * generation 在每次 work 被回收时都会改变，这样迟到的超时就能发现它。
+         */
+        private long timeout = -1;
+
+        private long deadline = -1;
+
+        private long expireAt;
+
+        private int generation = 0;
+
+        private RetryPolicy retryPolicy;
+
+        private int attempts = 0;
+
+        /*
+         * active is true from the moment the work is scheduled until it ends on MainThread,
+         * an active work is counted as foreground, or kept in deferredList when deferred.
+         * preempted asks the runners of a deferred work to give the thread back.
+         *
+         * active 从 work 被调度开始直到它在主线程中结束期间为 true ，
+         * 活跃的 work 会被计入前台，或者在延迟时保存在 deferredList 中。
+         * preempted 要求延迟 work 的执行线程交还线程。
+         */
+        private boolean deferred = false;
+
+        private boolean active = false;
+
+        private volatile boolean preempted = false;
+
+        /*
+         * Id of the ADD record in the journal, 0 when the work is not durable.
+         *
+         * 日志中 ADD 记录的 id ，不是持久任务时为 0 。
+         */
+        private boolean durable = false;
+
+        private long journalId = 0;
+
+        /*
+         * holding is true while the work takes a slot of its group.
+         *
+         * 当 work 占用它所在 group 的空位时 holding 为 true 。
+         */
+        private TaskGroup<Work> group;
+
+        private boolean holding = false;
+
+        /*
+         * Timestamps for tracer, null when no tracer is set.
+         *
+         * 用于 tracer 的时间戳，没有设置 tracer 时为 null 。
+         */
+        private TaskTrace trace;
+
+        /*
+         * Tasks attached to this work, a linked list through Task.next,
+         * detach() keeps the next pointer of the removed task,
+         * so callbacks can detach tasks while we iterate it.
+         *
+         * 附加在这个 work 上的任务，通过 Task.next 组成链表，
+         * detach() 会保留被移除任务的 next 指针，
+         * 所以回调可以在遍历过程中移除任务。
+         */
+        private Task head;
+
+        /*
+         * framed is true from pushFrame() until flushFrame() unlinks the work,
+         * a framed work is not pooled when recycled, otherwise pushing it again would cut off the works behind it.
+         *
+         * framed 从 pushFrame() 开始直到 flushFrame() 将 work 取下为止都为 true ，
+         * 被回收时处于 framed 状态的 work 不会放入对象池，否则再次压入它会截断它后面的 work 。
+         */
+        private Work nextFrame;
+
+        private volatile boolean framed = false;
+
+        private Work nextFree;
+
+        private List<TaskStage> stages() {
+            if (stages == null) {
+                stages = new ArrayList<>();
+                stages.add(new TaskStage(null));
+            }
+
+            return stages;
+        }
+
+        private TaskStage lastStage() {
+            return stages().get(stages().size() - 1);
+        }
+
+        private void ensureRunners(int count) {
+            if (runners.length() < count) {
+                runners = new AtomicReferenceArray<>(count);
+            }
+        }
+
+        private void attach(Task task) {
+            task.next = null;
+
+            if (head == null) {
+                head = task;
+                return;
+            }
+
+            Task tail = head;
+            while (tail.next != null) {
+                tail = tail.next;
+            }
+            tail.next = task;
+        }
+
+        private boolean isCancelled() {
+            return state.get() == STATE_CANCELLED || preempted;
+        }
+
+        private void detach(Task task) {
+            if (head == task) {
+                head = task.next;
+                return;
+            }
+
+            for (Task prev = head; prev != null; prev = prev.next) {
+                if (prev.next == task) {
+                    prev.next = task.next;
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            runWork(this);
+        }
+    }
+
+    private class Item extends TaskScheduler.Entry {
+        private Work work;
+
+        private int slot;
+
+        private Item(Work work, int slot) {
+            this.work = work;
+            this.slot = slot;
+        }
+
+        @Override
+        public void run() {
+            prepareThread(work.priority);
+            runItems(work, slot);
+        }
+    }
+
+    private class Chunk extends TaskScheduler.Entry {
+        private Work work;
+
+        private TaskSplit split;
+
+        private int slot;
+
+        private Chunk(Work work, TaskSplit split, int slot) {
+            this.work = work;
+            this.split = split;
+            this.slot = slot;
+        }
+
+        @Override
+        public void run() {
+            prepareThread(work.priority);
+            runChunks(work, split, slot);
+        }
+    }
+
+    private class Branch extends TaskScheduler.Entry {
+        private Work work;
+
+        private int stage;
+
+        private int index;
+
+        private Branch(Work work, int stage, int index) {
+            this.work = work;
+            this.stage = stage;
+            this.index = index;
+        }
+
+        @Override
+        public void run() {
+            prepareThread(work.priority);
+            runBranch(work, stage, index);
+        }
+    }
+
+    /*
+     * Carrier of progress messages, pooled like android.os.Message.
+     *
+     * 进度消息的载体，像 android.os.Message 一样被放入池中复用。
+     */
+    private class Envelope {
+        private Work work;
+
+        private M message;
+
+        private int index;
+
+        private Envelope next;
+
+        private void recycle() {
+            work = null;
+            message = null;
+            index = 0;
+
+            synchronized (envelopeLock) {
+                if (envelopePoolSize < MAX_ENVELOPE_POOL_SIZE) {
+                    next = envelopePool;
+                    envelopePool = this;
+                    envelopePoolSize++;
+                }
+            }
+        }
+    }
+
+    /*
+     * When you post a message from WorkerThread,
+     * your message.what should not equals MESSAGE_*.
+     *
+     * 当你在后台线程中发送消息的时候，
+     * 你的 message.what 不应该和 MESSAGE_* 相等。
+     */
+    public static final int MESSAGE_FINISH = 0x65530;
+
+    public static final int MESSAGE_BROKEN = 0x65531;
+
+    public static final int MESSAGE_STOP = 0x65532;
+
+    public static final int MESSAGE_PROGRESS = 0x65537;
+
+    /*
+     * PRIORITY_HIGH for work the user is waiting for,
+     * PRIORITY_NORMAL for common work,
+     * PRIORITY_LOW for prefetch work, runs only when nothing more important is queued.
+     *
+     * PRIORITY_HIGH 用于用户正在等待的任务，
+     * PRIORITY_NORMAL 用于普通的任务，
+     * PRIORITY_LOW 用于预加载任务，只有在没有更重要的任务排队时才会执行。
+     */
+    public static final int PRIORITY_HIGH = 0;
+
+    public static final int PRIORITY_NORMAL = 1;
+
+    public static final int PRIORITY_LOW = 2;
+
+    /*
+     * TYPE_CPU for computing work, TYPE_IO for disk/network work which mostly waits.
+     *
+     * TYPE_CPU 用于计算型任务， TYPE_IO 用于大部分时间在等待的磁盘/网络任务。
+     */
+    public static final int TYPE_CPU = 0;
+
+    public static final int TYPE_IO = 1;
+
+    private static final int MESSAGE_FLUSH = 0x65538;
+
+    private static final int MESSAGE_BROADCAST = 0x65539;
+
+    private static final int MESSAGE_ITEM = 0x6553A;
+
+    private static final int MESSAGE_NEXT = 0x6553B;
+
+    private static final int MESSAGE_TIMEOUT = 0x6553C;
+
+    private static final int MESSAGE_RETRY = 0x6553D;
+
+    private static final int MESSAGE_DEFER = 0x6553E;
+
+    private static final int MESSAGE_REPLAY = 0x6553F;
+
+    private static final int DEFAULT_DEFERRED_LIMIT = 1;
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private static final long DEFAULT_DELIVERY_BUDGET_MILLIS = 8;
+
+    private static final int STATE_QUEUED = 0;
+
+    private static final int STATE_RUNNING = 1;
+
+    private static final int STATE_DONE = 2;
+
+    private static final int STATE_CANCELLED = 3;
+
+    private static final int STATE_DELIVERED = 4;
+
+    private static final Object INTERRUPTING = new Object();
+
+    private static final int CACHE_SIZE = 64;
+
+    private static final int MAX_POOL_SIZE = 32;
+
+    private static final int MAX_ENVELOPE_POOL_SIZE = 50;
+
+    public TaskEngine(Dispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    /*
+     * Tasks begin from this, it looks like this:
+     * engine.with(owner).assign().handle().finish().broken().execute();
+     * The owner stops by stop(owner).
+     *
+     * 链式调用从这里开始，形式看上去差不是这样的：
+     * engine.with(owner).assign().handle().finish().broken().execute();
+     * 通过 stop(owner) 停止宿主。
+     */
+    public Register with(Object owner) {
+        return register(obtainScope(0, owner, null));
+    }
+
+    public Register register(Scope scope) {
+        if (scope.register == null) {
+            scope.register = new Register(scope);
+        }
+
+        return scope.register;
+    }
+
+    /*
+     * Find the scope of owner, or rebind the retained one which waits for a new owner,
+     * or reuse the retained one which was reset when its tasks ran out,
+     * or create a new one.
+     *
+     * 查找宿主的 scope ，或者重新绑定正在等待新宿主的被保留的 scope ，
+     * 或者复用在任务全部结束时被重置的被保留的 scope ，
+     * 或者创建一个新的 scope 。
+     */
+    public Scope obtainScope(int kind, Object owner, Scope retained) {
+        Scope scope = scopeMap.get(owner);
+        if (scope != null) {
+            return scope;
+        }
+
+        if (retained != null && retained.parked) {
+            rebindScope(retained, owner);
+            return retained;
+        }
+
+        if (retained != null && retained.owner == null) {
+            retained.kind = kind;
+            retained.owner = owner;
+            scopeMap.put(owner, retained);
+
+            return retained;
+        }
+
+        scope = new Scope(kind, owner);
+        scopeMap.put(owner, scope);
+
+        return scope;
+    }
+
+    /*
+     * When the owner is recreated by configuration change,
+     * tasks without key can't be found by the new owner, so cancel them,
+     * tasks with key keep running, and wait for the new owner to execute() the same key again.
+     *
+     * 当宿主因为配置变化被重建时，
+     * 没有 key 的任务无法被新的宿主找到，所以取消它们；
+     * 拥有 key 的任务继续执行，等待新的宿主使用相同的 key 再次调用 execute() 。
+     */
+    public void parkScope(Object owner) {
+        Scope scope = scopeMap.remove(owner);
+        if (scope == null) {
+            return;
+        }
+
+        for (int i = scope.taskTable.size() - 1; i >= 0; i--) {
+            Task task = scope.taskTable.get(i);
+
+            if (task.key == null) {
+                scope.taskTable.remove(task);
+                dropTask(task);
+            } else {
+                task.parked = true;
+                task.messageListener = null;
+                task.nextListener = null;
+                task.finishListener = null;
+                task.brokenListener = null;
+            }
+        }
+
+        scope.owner = null;
+        scope.parked = true;
+    }
+
+    /*
+     * The owner of a parked scope is finally destroyed instead of recreated,
+     * drop its tasks and release the results which were kept for the new owner.
+     *
+     * 被停放的 scope 的宿主最终被销毁而不是被重建，
+     * 丢弃它的任务，并释放为新宿主保存的结果。
+     */
+    public void discardScope(Scope scope) {
+        if (!scope.parked) {
+            return;
+        }
+
+        scope.parked = false;
+        resetScope(scope);
+    }
+
+    public void rebindScope(Scope scope, Object owner) {
+        if (owner == null || scopeMap.containsKey(owner)) {
+            return;
+        }
+
+        scope.owner = owner;
+        scope.parked = false;
+        scopeMap.put(owner, scope);
+    }
+
+    /*
+     * Stop the owner after the events which are already dispatched,
+     * interrupt its tasks and drop all its callbacks.
+     *
+     * 在已经分发的事件之后停止宿主，
+     * 中断它的任务并丢弃它所有的回调。
+     */
+    public void stop(Object owner) {
+        dispatcher.dispatch(this, MESSAGE_STOP, owner, 0);
+    }
+
+    /*
+     * Post message from WorkerThread to MainThread.
+     *
+     * Called in onBackground(), the message only goes to the MessageListener of the posting task,
+     * the carrier holds the task, so MainThread never looks for listeners.
+     * Called outside of a task, there is no task to target, so the message will be broadcast.
+     *
+     * 在后台线程中向主线程发送消息。
+     *
+     * 在 onBackground() 中调用时，消息只会发送给当前任务的 MessageListener ，
+     * 承载消息的载体持有这个任务，所以主线程不需要查找监听者。
+     * 在任务之外调用时，没有可以指定的任务，所以消息会被广播。
+     */
+    public void post(M message) {
+        Work work = currentWork.get();
+        if (work == null) {
+            broadcast(message);
+            return;
+        }
+
+        if (work.progress != null) {
+            coalesceProgress(work, message);
+            return;
+        }
+
+        dispatcher.dispatch(this, MESSAGE_PROGRESS, obtainEnvelope(work, message), 0);
+    }
+
+    /*
+     * Emit item from onBackground() of a task with next(), it is delivered to NextListener on MainThread.
+     * Block while the buffer is full, return false when the task is cancelled or its owner stops,
+     * the producer should stop and return then.
+     *
+     * 在拥有 next() 的任务的 onBackground() 中发出数据，它会在主线程中被发送给 NextListener 。
+     * 缓冲区满时阻塞，当任务被取消或者宿主停止时返回 false ，
+     * 此时生产者应该停止并返回。
+     */
+    public boolean emit(Object item) {
+        Work work = currentWork.get();
+        if (work == null || work.channel == null) {
+            throw new IllegalStateException("emit() must be called in onBackground() of a task with next()");
+        }
+
+        TaskChannel channel = work.channel;
+
+        synchronized (channel) {
+            while (channel.isFull() && !work.isCancelled()) {
+                try {
+                    channel.wait();
+                } catch (InterruptedException e) {
+                    return false;
+                }
+            }
+
+            if (work.isCancelled()) {
+                return false;
+            }
+
+            if (!channel.add(item)) {
+                return true;
+            }
+        }
+
+        dispatcher.dispatch(this, MESSAGE_NEXT, work, 0);
+
+        return true;
+    }
+
+    /*
+     * Post message from WorkerThread to every MessageListener of every owner,
+     * only use it when all listeners really need the message.
+     *
+     * 从后台线程向所有宿主的所有 MessageListener 发送消息，
+     * 只有当所有的监听者都确实需要这个消息时才使用它。
+     */
+    public void broadcast(M message) {
+        dispatcher.dispatch(this, MESSAGE_BROADCAST, message, 0);
+    }
+
+    /*
+     * Check it in long loops of onBackground(), return as soon as possible when it is true.
+     *
+     * 在 onBackground() 的耗时循环中检查它，当它为 true 时尽快返回。
+     */
+    public boolean isCancelled() {
+        Work work = currentWork.get();
+        return work != null && work.isCancelled();
+    }
+
+    /*
+     * Replace the default TaskScheduler, call it before any task executes.
+     *
+     * 替换默认的 TaskScheduler ，需要在任何任务执行之前调用。
+     */
+    public void setScheduler(Scheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /*
+     * Replace the default ResultCache, which keeps at most 64 results.
+     *
+     * 替换默认的 ResultCache ，默认最多保存 64 个结果。
+     */
+    public void setCache(ResultCache cache) {
+        this.cache = cache;
+    }
+
+    /*
+     * Use it to read hit/miss counters, or trim it when memory is low.
+     *
+     * 可用于读取命中/未命中计数，或者在内存不足时清理它。
+     */
+    public ResultCache getCache() {
+        return cache;
+    }
+
+    public void setBufferPool(BufferPool pool) {
+        this.bufferPool = pool;
+    }
+
+    /*
+     * Acquire buffers for large results from it, see BufferPool.
+     *
+     * 从这里为大结果申请 buffer ，参考 BufferPool 。
+     */
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /*
+     * Set null to turn tracing off, only works scheduled after it are traced.
+     *
+     * 设置为 null 可以关闭追踪，只有在此之后调度的 work 会被追踪。
+     */
+    public void setTracer(Tracer tracer) {
+        this.tracer = tracer;
+    }
+
+    /*
+     * Turn on durable(), call it once as early as possible, such as in Application.onCreate(),
+     * it never touches the disk on the caller thread,
+     * the tasks left by the last process are read on the journal thread and run later as deferred tasks.
+     *
+     * 开启 durable() ，尽早调用一次，比如在 Application.onCreate() 中，
+     * 它不会在调用者线程中访问磁盘，
+     * 上一个进程遗留的任务会在日志线程中被读取，之后作为延迟任务执行。
+     */
+    public void setJournal(TaskJournal journal) {
+        this.journal = journal;
+
+        journal.recover(new TaskJournal.Recovery() {
+            @Override
+            public void onRecover(List<TaskJournal.Record> recordList) {
+                dispatcher.dispatch(TaskEngine.this, MESSAGE_REPLAY, recordList, 0);
+            }
+        });
+    }
+
+    /*
+     * How many deferred tasks may run at once, 1 by default.
+     *
+     * 同时最多可以执行多少个延迟任务，默认为 1 。
+     */
+    public void setDeferredLimit(int limit) {
+        deferredLimit = Math.max(1, limit);
+        requestIdle();
+    }
+
+    public int getDeferredLimit() {
+        return deferredLimit;
+    }
+
+    /*
+     * How many tasks of group wait for a slot, call it on MainThread.
+     *
+     * group 中有多少个任务在等待空位，请在主线程中调用。
+     */
+    public int getGroupQueueSize(String group) {
+        TaskGroup<Work> found = groupMap.get(group);
+        return found != null ? found.getQueueSize() : 0;
+    }
+
+    /*
+     * How many tasks of group hold a slot, call it on MainThread.
+     *
+     * group 中有多少个任务占用着空位，请在主线程中调用。
+     */
+    public int getGroupRunningCount(String group) {
+        TaskGroup<Work> found = groupMap.get(group);
+        return found != null ? found.getRunningCount() : 0;
+    }
+
+    /*
+     * How much time callbacks of results may take per frame, 8ms by default, 0 means no limit.
+     * The first result of a frame is always delivered, the others move to the next frame when they don't fit.
+     *
+     * 每一帧中结果回调最多可以占用多少时间，默认为 8ms ， 0 表示没有限制。
+     * 每一帧的第一个结果总是会被发送，放不下的其他结果会移到下一帧。
+     */
+    public void setDeliveryBudget(long budgetMillis) {
+        deliveryBudget.setBudget(budgetMillis);
+    }
+
+    public long getDeliveryBudget() {
+        return deliveryBudget.getBudget();
+    }
+
+    /*
+     * How many frames spent more time in result callbacks than the budget.
+     *
+     * 有多少帧在结果回调中花费的时间超过了预算。
+     */
+    public long getOverBudgetCount() {
+        return deliveryBudget.getOverBudgetCount();
+    }
+
+    /*
+     * How many results were moved to a later frame by the budget.
+     *
+     * 有多少结果因为预算被移到了之后的帧。
+     */
+    public long getPostponedCount() {
+        return deliveryBudget.getPostponedCount();
+    }
+
+    /*
+     * How many progress messages were merged away by coalesce().
+     *
+     * 通过 coalesce() 被合并掉的进度消息数量。
+     */
+    public long getMergedCount() {
+        return mergedCount.get();
+    }
+
+    /*
+     * MainThread entry of events sent by Dispatcher.dispatch().
+     * When what = MESSAGE_STOP, clear all MainThread callback of the stopped owner,
+     * so we decouple WorkerThread and MainThread, avoid OOM.
+     *
+     * Dispatcher.dispatch() 发送的事件在主线程中的入口。
+     * 当 what = MESSAGE_STOP ，我们立即清除停止的宿主在主线程中的所有回调，
+     * 这样就做到了后台线程和主线程的解耦，有效避免 OOM 。
+     */
+    @SuppressWarnings("unchecked")
+    public void handleMessage(int what, Object obj) {
+        if (what == MESSAGE_FINISH || what == MESSAGE_BROKEN) {
+            Work work = (Work) obj;
+            if (deliveryBudget.offer(work, what, work.priority)) {
+                scheduleFrame();
+            }
+        } else if (what == MESSAGE_PROGRESS) {
+            Envelope progress = (Envelope) obj;
+            dispatchProgress(progress.work, progress.message);
+            progress.recycle();
+        } else if (what == MESSAGE_TIMEOUT) {
+            Envelope timeout = (Envelope) obj;
+            if (timeout.work.generation == timeout.index) {
+                timeoutWork(timeout.work);
+            }
+            timeout.recycle();
+        } else if (what == MESSAGE_RETRY) {
+            Envelope retry = (Envelope) obj;
+            if (retry.work.generation == retry.index && retry.work.state.get() == STATE_QUEUED) {
+                rescheduleWork(retry.work);
+            }
+            retry.recycle();
+        } else if (what == MESSAGE_DEFER) {
+            Envelope defer = (Envelope) obj;
+            if (defer.work.generation == defer.index && defer.work.state.get() == STATE_QUEUED) {
+                defer.work.preempted = false;
+
+                if (defer.work.deferred) {
+                    endWork(defer.work);
+                    deferredQueue.addFirst(defer.work);
+                    requestIdle();
+                } else {
+                    rescheduleWork(defer.work);
+                }
+            }
+            defer.recycle();
+        } else if (what == MESSAGE_REPLAY) {
+            replay((List<TaskJournal.Record>) obj);
+        } else if (what == MESSAGE_NEXT) {
+            deliverNext((Work) obj);
+        } else if (what == MESSAGE_ITEM) {
+            Envelope item = (Envelope) obj;
+            deliverItem(item.work, item.index);
+            item.recycle();
+        } else if (what == MESSAGE_FLUSH) {
+            Envelope flush = (Envelope) obj;
+            flushProgress(flush.work);
+            flush.recycle();
+        } else if (what == MESSAGE_STOP) {
+            Scope scope = scopeMap.remove(obj);
+            if (scope != null) {
+                resetScope(scope);
+            }
+        } else if (what == MESSAGE_BROADCAST) {
+            broadcastMessage((M) obj);
+        }
+    }
+
+    /*
+     * Listeners may cancel tasks, stop owners or start new tasks while the message goes around,
+     * so take a snapshot of the listening tasks first,
+     * and skip a task which has left its table or been reused by another task since then.
+     *
+     * 在消息传递的过程中，监听者可能会取消任务、停止宿主或者启动新的任务，
+     * 所以先对正在监听的任务做一个快照，
+     * 并且跳过那些已经离开任务表，或者已经被其他任务复用的记录。
+     */
+    private void broadcastMessage(M message) {
+        List<Task> taskList = new ArrayList<>();
+        for (Scope scope : scopeMap.values()) {
+            for (int i = scope.taskTable.size() - 1; i >= 0; i--) {
+                Task task = scope.taskTable.get(i);
+                if (task.messageListener != null) {
+                    taskList.add(task);
+                }
+            }
+        }
+
+        int[] ids = new int[taskList.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = taskList.get(i).id;
+        }
+
+        for (int i = 0; i < ids.length; i++) {
+            Task task = taskList.get(i);
+            if (task.id == ids[i] && task.scope != null && task.scope.taskTable.contains(task)
+                    && task.messageListener != null) {
+                task.messageListener.handleMessage(message);
+            }
+        }
+    }
+
+    /*
+     * MainThread entry of frames requested by Dispatcher.dispatchFrame().
+     *
+     * Dispatcher.dispatchFrame() 请求的帧在主线程中的入口。
+     */
+    public void flushFrame() {
+        frameScheduled.set(false);
+
+        Work work = frameStack.getAndSet(null);
+        while (work != null) {
+            Work next = work.nextFrame;
+            work.nextFrame = null;
+            work.framed = false;
+            flushProgress(work);
+            work = next;
+        }
+
+        if (deliveryBudget.flush()) {
+            scheduleFrame();
+        }
+    }
+
+    /*
+     * MainThread entry of idle turns requested by Dispatcher.dispatchIdle(),
+     * start deferred works while no foreground work is in flight.
+     *
+     * Dispatcher.dispatchIdle() 请求的空闲时机在主线程中的入口，
+     * 在没有前台 work 执行时启动延迟的 work 。
+     */
+    public void flushIdle() {
+        idleScheduled = false;
+
+        while (foregroundCount == 0 && deferredList.size() < deferredLimit && !deferredQueue.isEmpty()) {
+            Work work = deferredQueue.pollFirst();
+            if (work.state.get() != STATE_QUEUED) {
+                continue;
+            }
+
+            activateWork(work);
+            rescheduleWork(work);
+        }
+    }
+
+    /*
+     * Called on WorkerThread before a work or a parallel branch runs,
+     * override it to apply the priority to the thread.
+     *
+     * 在 work 或者并行分支执行之前于后台线程中调用，
+     * 覆盖它可以将优先级应用到线程上。
+     */
+    protected void prepareThread(int priority) {
+    }
+
+    /*
+     * Called on MainThread when the task table of owner becomes empty,
+     * the scope is dropped right after it, override it to release the lifecycle hook of owner.
+     *
+     * 当宿主的任务表变为空时于主线程中调用，
+     * 随后 scope 会被丢弃，覆盖它可以释放宿主的生命周期 hook 。
+     */
+    protected void onScopeEmpty(int kind, Object owner) {
+    }
+
+    /*
+     * Every task has an unique id, so a handle knows whether the pooled record is still its own.
+     *
+     * 每个任务都有一个唯一的 id ，这样 handle 就知道池中的记录是否仍然属于它。
+     */
+    private AtomicInteger count = new AtomicInteger(0);
+
+    /*
+     * Hold every owner which has running tasks,
+     * when owner stops, remember use resetScope() to reset its scope.
+     *
+     * 用于承载所有存在运行中任务的宿主，
+     * 当宿主停止时，记住使用 resetScope() 将它的 scope 重置。
+     */
+    private Map<Object, Scope> scopeMap = new IdentityHashMap<>();
+
+    /*
+     * Running works by key, only touched on MainThread.
+     *
+     * 按照 key 保存的正在执行的 work ，只在主线程中访问。
+     */
+    private Map<String, Work> flightMap = new HashMap<>();
+
+    /*
+     * The work which is running on current WorkerThread, so post() knows where the message comes from.
+     * It's cleared with set(null) instead of remove(), so a pool thread keeps its entry for the next work.
+     *
+     * 当前后台线程正在执行的 work ，这样 post() 就知道消息来自哪里。
+     * 使用 set(null) 而不是 remove() 来清除它，这样线程池中的线程可以为下一个 work 保留它的条目。
+     */
+    private ThreadLocal<Work> currentWork = new ThreadLocal<>();
+
+    /*
+     * Coalesced works which have pending progress for the next frame,
+     * a lock-free stack through Work.nextFrame.
+     *
+     * 存在等待下一帧发送的进度消息的合并 work ，
+     * 通过 Work.nextFrame 组成的无锁栈。
+     */
+    private AtomicReference<Work> frameStack = new AtomicReference<>();
+
+    /*
+     * Pools of task records and works, only touched on MainThread.
+     *
+     * 任务记录和 work 的对象池，只在主线程中访问。
+     */
+    private Task taskPool;
+
+    private int taskPoolSize = 0;
+
+    private Work workPool;
+
+    private int workPoolSize = 0;
+
+    /*
+     * Pool of envelopes, touched by every WorkerThread which posts.
+     *
+     * 载体的对象池，所有发送消息的后台线程都会访问它。
+     */
+    private final Object envelopeLock = new Object();
+
+    private Envelope envelopePool;
+
+    private int envelopePoolSize = 0;
+
+    private AtomicBoolean frameScheduled = new AtomicBoolean(false);
+
+    private DeliveryBudget<Work> deliveryBudget = new DeliveryBudget<>(new DeliveryBudget.Delivery<Work>() {
+        @Override
+        public void deliver(Work work, int what) {
+            deliverResult(work, what);
+        }
+    }, DEFAULT_DELIVERY_BUDGET_MILLIS);
+
+    /*
+     * Deferred tier, only touched on MainThread,
+     * deferredQueue holds works waiting for idle, deferredList holds the running ones.
+     *
+     * 延迟层，只在主线程中访问，
+     * deferredQueue 保存等待空闲的 work ， deferredList 保存正在执行的 work 。
+     */
+    private ArrayDeque<Work> deferredQueue = new ArrayDeque<>();
+
+    private List<Work> deferredList = new ArrayList<>();
+
+    private int deferredLimit = DEFAULT_DEFERRED_LIMIT;
+
+    private int foregroundCount = 0;
+
+    private boolean idleScheduled = false;
+
+    /*
+     * Groups by name, only touched on MainThread.
+     *
+     * 按照名称保存的 group ，只在主线程中访问。
+     */
+    private Map<String, TaskGroup<Work>> groupMap = new HashMap<>();
+
+    private AtomicLong mergedCount = new AtomicLong(0);
+
+    private final Dispatcher dispatcher;
+
+    private volatile Scheduler scheduler = new TaskScheduler();
+
+    private volatile ResultCache cache = new ResultCache(CACHE_SIZE);
+
+    private volatile Tracer tracer;
+
+    private volatile BufferPool bufferPool = new BufferPool();
+
+    private volatile TaskJournal journal;
+
+    /*
+     * Only the first pending message schedules a delivery,
+     * by the interval of the work, or by the next frame.
+     *
+     * 只有第一个等待中的消息会安排一次发送，
+     * 按照 work 的间隔，或者在下一帧。
+     */
+    private void coalesceProgress(Work work, M message) {
+        TaskProgress<M> progress = work.progress;
+        if (!progress.offer(message)) {
+            mergedCount.incrementAndGet();
+        } else if (progress.getInterval() > 0) {
+            dispatcher.dispatch(this, MESSAGE_FLUSH, obtainEnvelope(work, null), progress.getInterval());
+        } else {
+            pushFrame(work);
+            scheduleFrame();
+        }
+    }
+
+    private void pushFrame(Work work) {
+        while (true) {
+            Work top = frameStack.get();
+            work.nextFrame = top;
+            work.framed = true;
+
+            if (frameStack.compareAndSet(top, work)) {
+                return;
+            }
+        }
+    }
+
+    private void scheduleFrame() {
+        if (frameScheduled.compareAndSet(false, true)) {
+            dispatcher.dispatchFrame(this);
+        }
+    }
+
+    private void flushProgress(Work work) {
+        M message = work.progress != null ? work.progress.take() : null;
+        if (message != null) {
+            dispatchProgress(work, message);
+        }
+    }
+
+    private void dispatchProgress(Work work, M message) {
+        for (Task task = work.head; task != null; task = task.next) {
+            if (task.messageListener != null && task.scope.taskTable.contains(task)) {
+                task.messageListener.handleMessage(message);
+            }
+        }
+    }
+
+    /*
+     * Deliver the result to every task attached to the work,
+     * then recycle delivered task records and the work.
+     *
+     * 将结果发送给所有附加在 work 上的任务，
+     * 然后回收已经发送的任务记录和 work 。
+     */
+    private void deliverResult(Work work, int what) {
+        if (!work.state.compareAndSet(STATE_DONE, STATE_DELIVERED)) {
+            return;
+        }
+
+        endWork(work);
+        deliverTasks(work, what, work.result);
+        recycleWork(work);
+    }
+
+    /*
+     * A result which is already done wins over the timeout,
+     * otherwise the work is cancelled but not recycled, its WorkerThread may still hold it,
+     * and may still write and release its late result, so the exception never goes through work.result.
+     *
+     * 已经结束的结果优先于超时，
+     * 否则 work 会被取消但不会被回收，它的后台线程可能仍然持有它，
+     * 并且可能仍在写入和释放它迟到的结果，所以这个异常永远不会经过 work.result 。
+     */
+    private void timeoutWork(Work work) {
+        if (work.head == null) {
+            return;
+        }
+
+        boolean started = work.state.get() == STATE_RUNNING;
+        if (!cancelWork(work)) {
+            return;
+        }
+
+        deliverTasks(work, MESSAGE_BROKEN, new TaskTimeoutException(work.timeout, started));
+    }
+
+    private void deliverTasks(Work work, int what, Object result) {
+        if (work.trace != null) {
+            work.trace.delivered(what == MESSAGE_BROKEN);
+        }
+
+        flushProgress(work);
+        finishWork(work);
+
+        Task task = work.head;
+        work.head = null;
+
+        // A Releasable result goes to the first task still waiting, see Builder.key().
+        // Releasable 结果交给第一个仍在等待的任务，参考 Builder.key() 。
+        boolean owned = what == MESSAGE_FINISH && result instanceof Releasable;
+        Exception shared = null;
+
+        while (task != null) {
+            Task next = task.next;
+            task.next = null;
+
+            int taskWhat = what;
+            Object taskResult = result;
+            if (owned && (task.parked || task.scope.taskTable.contains(task))) {
+                if (shared != null) {
+                    taskWhat = MESSAGE_BROKEN;
+                    taskResult = shared;
+                } else {
+                    shared = new IllegalStateException("Releasable result of key " + work.key + " has gone to the first task");
+                }
+            }
+
+            if (task.parked) {
+                task.resultWhat = taskWhat;
+                task.result = taskResult;
+                task.work = null;
+            } else if (task.scope.taskTable.remove(task)) {
+                if (work.items != null) {
+                    if (task.batchListener != null) {
+                        task.batchListener.onFinish(work.items.results, work.items.exceptions);
+                    }
+                } else if (taskWhat == MESSAGE_FINISH && task.finishListener != null) {
+                    task.finishListener.onFinish(taskResult);
+                } else if (taskWhat == MESSAGE_BROKEN && task.brokenListener != null) {
+                    task.brokenListener.onBroken((Exception) taskResult);
+                }
+
+                dispatchUnregister(task.scope);
+                recycleTask(task);
+            }
+
+            task = next;
+        }
+    }
+
+    /*
+     * The producer dispatches MESSAGE_NEXT before it completes,
+     * so the buffer is always drained before the work is delivered and recycled.
+     *
+     * 生产者在结束之前发送 MESSAGE_NEXT ，
+     * 所以缓冲区总是在 work 被发送和回收之前被取空。
+     */
+    private void deliverNext(Work work) {
+        for (Object item : work.channel.drain()) {
+            for (Task task = work.head; task != null; task = task.next) {
+                if (task.nextListener != null && task.scope.taskTable.contains(task)) {
+                    task.nextListener.onNext(item);
+                }
+            }
+        }
+    }
+
+    /*
+     * A batch is never shared by key, so the only attached task is the batch itself.
+     *
+     * 批次不会通过 key 共享，所以唯一附加的任务就是批次本身。
+     */
+    private void deliverItem(Work work, int index) {
+        Task task = work.head;
+        if (task == null || !task.scope.taskTable.contains(task)) {
+            return;
+        }
+
+        Exception e = work.items.exceptions[index];
+        if (e == null && task.finishListener != null) {
+            task.finishListener.onFinish(work.items.results[index]);
+        } else if (e != null && task.brokenListener != null) {
+            task.brokenListener.onBroken(e);
+        }
+    }
+
+    private String tagOf(Task task) {
+        if (task.work != null && task.work.tag != null) {
+            return task.work.tag;
+        }
+
+        return task.key;
+    }
+
+    private void sendResult(Work work, int what) {
+        dispatcher.dispatch(this, what, work, 0);
+    }
+
+    /*
+     * For results which never ran on WorkerThread, such as cache hits and rejected works.
+     *
+     * 用于从未在后台线程中执行的结果，比如缓存命中以及被拒绝的 work 。
+     */
+    private void sendEarly(Work work, int what) {
+        work.state.set(STATE_DONE);
+        completeJournal(work);
+        sendResult(work, what);
+    }
+
+    private void sendItem(Work work, int index) {
+        Envelope envelope = obtainEnvelope(work, null);
+        envelope.index = index;
+        dispatcher.dispatch(this, MESSAGE_ITEM, envelope, 0);
+    }
+
+    private Envelope obtainEnvelope(Work work, M message) {
+        Envelope envelope = null;
+
+        synchronized (envelopeLock) {
+            if (envelopePool != null) {
+                envelope = envelopePool;
+                envelopePool = envelope.next;
+                envelope.next = null;
+                envelopePoolSize--;
+            }
+        }
+
+        if (envelope == null) {
+            envelope = new Envelope();
+        }
+
+        envelope.work = work;
+        envelope.message = message;
+
+        return envelope;
+    }
+
+    private Task obtainTask(Scope scope, Work work) {
+        Task task = taskPool;
+        if (task != null) {
+            taskPool = task.next;
+            task.next = null;
+            taskPoolSize--;
+        } else {
+            task = new Task();
+            task.builder = new Builder(task);
+        }
+
+        task.scope = scope;
+        task.id = count.getAndIncrement();
+        task.work = work;
+
+        return task;
+    }
+
+    private void recycleTask(Task task) {
+        task.scope = null;
+        task.id = -1;
+        task.slot = -1;
+        task.key = null;
+        task.work = null;
+        task.messageListener = null;
+        task.finishListener = null;
+        task.brokenListener = null;
+        task.nextListener = null;
+        task.batchListener = null;
+        task.cancelled = false;
+        task.parked = false;
+        task.resultWhat = 0;
+        task.result = null;
+
+        if (taskPoolSize < MAX_POOL_SIZE) {
+            task.next = taskPool;
+            taskPool = task;
+            taskPoolSize++;
+        }
+    }
+
+    private Work obtainWork(TaskDescription description) {
+        Work work = workPool;
+        if (work != null) {
+            workPool = work.nextFree;
+            work.nextFree = null;
+            workPoolSize--;
+        } else {
+            work = new Work();
+        }
+
+        work.description = description;
+        work.priority = PRIORITY_NORMAL;
+
+        return work;
+    }
+
+    /*
+     * Only recycle works which are delivered or never scheduled,
+     * a cancelled work may still be referenced by WorkerThread.
+     *
+     * 只回收已经发送结果或者从未被调度的 work ，
+     * 被取消的 work 可能仍然被后台线程引用着。
+     */
+    private void recycleWork(Work work) {
+        work.description = null;
+        work.key = null;
+        work.tag = null;
+        work.type = TYPE_CPU;
+        work.ttl = 0;
+        work.progress = null;
+        work.state.set(STATE_QUEUED);
+        for (int i = 0; i < work.runners.length(); i++) {
+            work.runners.set(i, null);
+        }
+        work.stages = null;
+        work.items = null;
+        work.split = null;
+        work.channel = null;
+        work.timeout = -1;
+        work.deadline = -1;
+        work.expireAt = 0;
+        work.generation++;
+        work.retryPolicy = null;
+        work.attempts = 0;
+        work.deferred = false;
+        work.active = false;
+        work.preempted = false;
+        work.durable = false;
+        work.journalId = 0;
+        work.group = null;
+        work.holding = false;
+        work.result = null;
+        work.trace = null;
+        work.head = null;
+
+        if (work.framed) {
+            return;
+        }
+
+        if (workPoolSize < MAX_POOL_SIZE) {
+            work.nextFree = workPool;
+            workPool = work;
+            workPoolSize++;
+        }
+    }
+
+    /*
+     * Take the parked task with the same key out of scope,
+     * if it is still running, execute() attaches to it by key as usual.
+     *
+     * 从 scope 中取出拥有相同 key 的被停放任务，
+     * 如果它仍在执行， execute() 会像平常一样通过 key 附加到它上面。
+     */
+    private Task claimParked(Scope scope, String key) {
+        for (int i = scope.taskTable.size() - 1; i >= 0; i--) {
+            Task task = scope.taskTable.get(i);
+
+            if (task.parked && key.equals(task.key)) {
+                scope.taskTable.remove(task);
+                if (task.work != null) {
+                    task.work.detach(task);
+                }
+
+                return task;
+            }
+        }
+
+        return null;
+    }
+
+    private void runWork(Work work) {
+        prepareThread(work.priority);
+
+        if (work.stages != null) {
+            advance(work, 0, null);
+            return;
+        }
+
+        if (work.items != null) {
+            forkItems(work);
+            return;
+        }
+
+        if (work.split != null) {
+            forkChunks(work);
+            return;
+        }
+
+        if (!claimWork(work, 0)) {
+            return;
+        }
+
+        int what;
+        Object result;
+        currentWork.set(work);
+
+        try {
+            result = work.description.onBackground();
+            what = MESSAGE_FINISH;
+        } catch (Exception e) {
+            result = e;
+            what = MESSAGE_BROKEN;
+        } finally {
+            currentWork.set(null);
+            releaseWork(work, 0);
+        }
+
+        completeWork(work, what, result);
+    }
+
+    /*
+     * Run serial steps one by one on current WorkerThread,
+     * until the work is finished or a parallel step forks.
+     *
+     * 在当前后台线程中逐个执行串行的步骤，
+     * 直到任务结束或者遇到需要分叉的并行步骤。
+     */
+    private void advance(Work work, int index, Object input) {
+        for (; index < work.stages.size(); index++) {
+            TaskStage stage = work.stages.get(index);
+            if (!stage.branchList.isEmpty()) {
+                fork(work, index, input);
+                return;
+            }
+
+            if (!claimWork(work, 0)) {
+                return;
+            }
+
+            Exception failure = null;
+            currentWork.set(work);
+
+            try {
+                input = stage.run(work.description, input);
+            } catch (Exception e) {
+                failure = e;
+            } finally {
+                currentWork.set(null);
+                releaseWork(work, 0);
+            }
+
+            if (failure != null) {
+                completeWork(work, MESSAGE_BROKEN, failure);
+                return;
+            }
+        }
+
+        completeWork(work, MESSAGE_FINISH, input);
+    }
+
+    private void fork(Work work, int index, Object input) {
+        TaskStage stage = work.stages.get(index);
+        int count = stage.branchList.size() + 1;
+
+        stage.input = input;
+        stage.results = new Object[count];
+        stage.pending.set(count);
+        stage.failure.set(null);
+
+        for (int i = 1; i < count; i++) {
+            try {
+                scheduler.schedule(new Branch(work, index, i), work.priority, work.type);
+            } catch (RejectedExecutionException e) {
+                stage.failure.compareAndSet(null, e);
+                stage.pending.decrementAndGet();
+            }
+        }
+
+        runBranch(work, index, 0);
+    }
+
+    /*
+     * Branch releases its runner before arriving,
+     * so when the last branch arrives nobody else touches the work.
+     *
+     * 分支在到达之前释放它的执行线程，
+     * 这样当最后一个分支到达时，没有其他线程会再访问这个 work 。
+     */
+    private void runBranch(Work work, int index, int branch) {
+        TaskStage stage = work.stages.get(index);
+        if (!claimWork(work, branch)) {
+            return;
+        }
+
+        currentWork.set(work);
+
+        try {
+            if (branch == 0) {
+                stage.results[branch] = stage.run(work.description, stage.input);
+            } else {
+                stage.results[branch] = stage.branchList.get(branch - 1).onBackground();
+            }
+        } catch (Exception e) {
+            stage.failure.compareAndSet(null, e);
+        } finally {
+            currentWork.set(null);
+            releaseWork(work, branch);
+        }
+
+        if (stage.pending.decrementAndGet() > 0) {
+            return;
+        }
+
+        if (stage.failure.get() != null) {
+            completeWork(work, MESSAGE_BROKEN, stage.failure.get());
+            return;
+        }
+
+        Object combined;
+        try {
+            combined = stage.zipper != null ? stage.zipper.zip(stage.results[0], stage.results[1]) : stage.results;
+        } catch (Exception e) {
+            completeWork(work, MESSAGE_BROKEN, e);
+            return;
+        }
+
+        advance(work, index + 1, combined);
+    }
+
+    /*
+     * The first runner hands off the helpers, so MainThread only schedules once,
+     * a rejected helper is fine, the runners which do start take its share,
+     * and it leaves at once instead of being waited for.
+     *
+     * 由第一个执行线程提交其余的辅助线程，这样主线程只需要调度一次，
+     * 辅助线程被拒绝也没有关系，已经启动的执行线程会承担它的那一份，
+     * 并且它会立即离开，而不会被等待。
+     */
+    private void forkItems(Work work) {
+        int runners = work.runners.length();
+
+        for (int i = 1; i < runners; i++) {
+            try {
+                scheduler.schedule(new Item(work, i), work.priority, work.type);
+            } catch (RejectedExecutionException e) {
+                work.items.pending.addAndGet(i - runners);
+                break;
+            }
+        }
+
+        runItems(work, 0);
+    }
+
+    /*
+     * Every runner holds one count of pending until it leaves,
+     * so the work stays alive for it, the last one to leave completes the batch.
+     *
+     * 每个执行线程在离开之前都持有 pending 中的一个计数，
+     * 所以 work 会为它保持有效，最后一个离开的执行线程结束这个批次。
+     */
+    private void runItems(Work work, int slot) {
+        TaskItems items = work.items;
+        int size = items.descriptions.size();
+
+        while (true) {
+            int index = items.cursor.getAndIncrement();
+            if (index >= size || !claimWork(work, slot)) {
+                break;
+            }
+
+            currentWork.set(work);
+
+            try {
+                items.results[index] = items.descriptions.get(index).onBackground();
+            } catch (Exception e) {
+                items.exceptions[index] = e;
+            } finally {
+                currentWork.set(null);
+                releaseWork(work, slot);
+            }
+
+            if (items.each && !work.isCancelled()) {
+                sendItem(work, index);
+            }
+
+            items.pending.decrementAndGet();
+        }
+
+        if (items.pending.decrementAndGet() == 0) {
+            completeWork(work, MESSAGE_FINISH, items.results);
+        }
+    }
+
+    /*
+     * A rejected helper is fine, the first runner takes every chunk left,
+     * and it leaves at once instead of being waited for.
+     *
+     * 辅助线程被拒绝也没有关系，第一个执行线程会承担剩下的所有块，
+     * 并且它会立即离开，而不会被等待。
+     */
+    private void forkChunks(Work work) {
+        TaskSplit split = work.split.attempt(work.runners.length());
+
+        for (int i = 1; i < split.runners; i++) {
+            try {
+                scheduler.schedule(new Chunk(work, split, i), work.priority, work.type);
+            } catch (RejectedExecutionException e) {
+                split.pending.addAndGet(i - split.runners);
+                break;
+            }
+        }
+
+        runChunks(work, split, 0);
+    }
+
+    /*
+     * Every runner holds one count of pending until it leaves, the last one to leave reduces.
+     *
+     * 每个执行线程在离开之前都持有 pending 中的一个计数，最后一个离开的执行线程进行合并。
+     */
+    private void runChunks(Work work, TaskSplit split, int slot) {
+        int size = split.input.size();
+
+        while (true) {
+            int index = split.cursor.getAndIncrement();
+            if (index >= split.results.length || !claimWork(work, slot)) {
+                break;
+            }
+
+            currentWork.set(work);
+
+            try {
+                if (split.failure.get() == null) {
+                    int from = index * split.chunkSize;
+                    split.results[index] = split.mapper.map(split.input.subList(from, Math.min(from + split.chunkSize, size)));
+                }
+            } catch (Exception e) {
+                split.failure.compareAndSet(null, e);
+            } finally {
+                currentWork.set(null);
+                releaseWork(work, slot);
+            }
+
+            split.pending.decrementAndGet();
+        }
+
+        if (split.pending.decrementAndGet() == 0) {
+            reduceChunks(work, split, slot);
+        }
+    }
+
+    /*
+     * Only the last runner to leave reduces, nobody else touches the split by then.
+     * When it left because the work was cancelled or timed out, claimWork() fails and nothing is reduced.
+     *
+     * 只有最后一个离开的执行线程进行合并，此时没有其他线程会再访问这个 split 。
+     * 如果它是因为 work 被取消或者超时而离开的， claimWork() 会失败，不会进行任何合并。
+     */
+    private void reduceChunks(Work work, TaskSplit split, int slot) {
+        if (!claimWork(work, slot)) {
+            return;
+        }
+
+        if (split.failure.get() != null) {
+            releaseWork(work, slot);
+            completeWork(work, MESSAGE_BROKEN, split.failure.get());
+            return;
+        }
+
+        Object result = null;
+        Exception failure = null;
+
+        try {
+            for (int i = 0; i < split.results.length; i++) {
+                result = i == 0 ? split.results[0] : split.reducer.reduce(result, split.results[i]);
+                split.results[i] = null;
+            }
+        } catch (Exception e) {
+            failure = e;
+        } finally {
+            releaseWork(work, slot);
+        }
+
+        if (failure != null) {
+            completeWork(work, MESSAGE_BROKEN, failure);
+        } else {
+            completeWork(work, MESSAGE_FINISH, result);
+        }
+    }
+
+    private void completeWork(Work work, int what, Object result) {
+        if (work.preempted && requeueWork(work)) {
+            release(result);
+            return;
+        }
+
+        if (what == MESSAGE_BROKEN && retryWork(work, (Exception) result)) {
+            return;
+        }
+
+        work.result = result;
+        if (!work.state.compareAndSet(STATE_RUNNING, STATE_DONE)) {
+            releaseResult(work);
+            return;
+        }
+
+        if (work.trace != null) {
+            work.trace.end();
+        }
+
+        if (what == MESSAGE_FINISH && work.ttl > 0 && !(result instanceof Releasable)) {
+            cache.put(work.key, result, work.ttl);
+        }
+
+        completeJournal(work);
+        sendResult(work, what);
+    }
+
+    /*
+     * Every runner has released the work before it completes,
+     * so MainThread can schedule it again once the backoff is over.
+     *
+     * 所有的执行线程在 work 结束之前都已经释放了它，
+     * 所以退避时间结束之后主线程可以再次调度它。
+     */
+    private boolean retryWork(Work work, Exception e) {
+        if (work.retryPolicy == null || !work.retryPolicy.shouldRetry(e, work.attempts + 1)) {
+            return false;
+        }
+
+        if (!work.state.compareAndSet(STATE_RUNNING, STATE_QUEUED)) {
+            return false;
+        }
+
+        work.attempts++;
+
+        Envelope envelope = obtainEnvelope(work, null);
+        envelope.index = work.generation;
+        dispatcher.dispatch(this, MESSAGE_RETRY, envelope, work.retryPolicy.backoffMillis(work.attempts));
+
+        return true;
+    }
+
+    /*
+     * A preempted deferred work goes back to MainThread, which puts it at the front of the tier,
+     * or schedules it again when a foreground task promoted it meanwhile.
+     *
+     * 被抢占的延迟 work 回到主线程，由主线程将它放回延迟层的最前面，
+     * 如果在此期间它被前台任务提升了，则再次调度它。
+     */
+    private boolean requeueWork(Work work) {
+        if (!work.state.compareAndSet(STATE_RUNNING, STATE_QUEUED)) {
+            return false;
+        }
+
+        Envelope envelope = obtainEnvelope(work, null);
+        envelope.index = work.generation;
+        dispatcher.dispatch(this, MESSAGE_DEFER, envelope, 0);
+
+        return true;
+    }
+
+    private void deferWork(Work work) {
+        deferredQueue.addLast(work);
+        requestIdle();
+    }
+
+    private void requestIdle() {
+        if (!idleScheduled && foregroundCount == 0 && !deferredQueue.isEmpty()) {
+            idleScheduled = true;
+            dispatcher.dispatchIdle(this);
+        }
+    }
+
+    /*
+     * A foreground work preempts every running deferred work.
+     *
+     * 前台 work 会抢占所有正在执行的延迟 work 。
+     */
+    private void activateWork(Work work) {
+        work.active = true;
+
+        if (work.deferred) {
+            deferredList.add(work);
+            return;
+        }
+
+        foregroundCount++;
+        for (int i = 0; i < deferredList.size(); i++) {
+            Work deferred = deferredList.get(i);
+            if (!deferred.preempted) {
+                deferred.preempted = true;
+                interruptRunners(deferred);
+            }
+        }
+    }
+
+    private void endWork(Work work) {
+        if (!work.active) {
+            return;
+        }
+
+        work.active = false;
+        if (work.deferred) {
+            deferredList.remove(work);
+        } else {
+            foregroundCount--;
+        }
+
+        if (work.group != null) {
+            leaveGroup(work);
+        }
+
+        requestIdle();
+    }
+
+    /*
+     * A work over the limit of its group waits in the queue of group, it is still active but takes no WorkerThread.
+     *
+     * 超出 group 限制的 work 在 group 的队列中等待，它仍然是活跃的，但不会占用后台线程。
+     */
+    private void scheduleWork(Work work) {
+        if (work.group != null && !work.holding) {
+            if (!work.group.enter(work)) {
+                return;
+            }
+
+            work.holding = true;
+        }
+
+        scheduler.schedule(work, work.priority, work.type);
+    }
+
+    /*
+     * Give the slot back (or leave the queue), then start the waiting works which fit in the limit.
+     *
+     * 交还空位（或者离开队列），然后启动在限制之内的等待中的 work 。
+     */
+    private void leaveGroup(Work work) {
+        work.group.leave(work, work.holding);
+        work.holding = false;
+
+        drainGroup(work.group);
+    }
+
+    private void drainGroup(TaskGroup<Work> group) {
+        Work next;
+        while ((next = group.poll()) != null) {
+            if (next.state.get() == STATE_QUEUED) {
+                rescheduleWork(next);
+            }
+        }
+    }
+
+    private TaskGroup<Work> obtainGroup(String name, int limit) {
+        TaskGroup<Work> group = groupMap.get(name);
+        if (group == null) {
+            group = new TaskGroup<>();
+            groupMap.put(name, group);
+        }
+
+        group.setLimit(limit);
+        drainGroup(group);
+
+        return group;
+    }
+
+    /*
+     * A running deferred work which is already preempted has been interrupted,
+     * so its attempt still ends as preempted, and MESSAGE_DEFER schedules it again at the new priority
+     * instead of delivering a truncated result.
+     *
+     * 已经被抢占的正在执行的延迟 work 已经被中断了，
+     * 所以它的这次尝试仍然以被抢占结束，由 MESSAGE_DEFER 使用新的优先级再次调度它，
+     * 而不是发送一个被截断的结果。
+     */
+    private void promoteWork(Work work, int priority) {
+        work.priority = priority;
+
+        if (work.active) {
+            deferredList.remove(work);
+            work.deferred = false;
+            work.active = false;
+            activateWork(work);
+        } else if (deferredQueue.remove(work)) {
+            work.deferred = false;
+            activateWork(work);
+            rescheduleWork(work);
+        }
+    }
+
+    private void rescheduleWork(Work work) {
+        try {
+            scheduleWork(work);
+        } catch (RejectedExecutionException e) {
+            work.result = e;
+            work.state.set(STATE_DONE);
+            completeJournal(work);
+            deliverResult(work, MESSAGE_BROKEN);
+        }
+    }
+
+    /*
+     * Every path that ends a durable work comes here, finished, broken, rejected, cancelled or timed out,
+     * so the journal never replays a work which has already told its listeners how it ended.
+     * Only the path which ended the work gets here, the id is cleared anyway so it's completed once.
+     *
+     * 结束一个持久化 work 的每条路径都会来到这里，无论是完成、失败、被拒绝、被取消还是超时，
+     * 所以日志永远不会重放一个已经告诉监听者结局的 work 。
+     * 只有结束 work 的那条路径会来到这里，不过仍然会清空 id ，保证只完成一次。
+     */
+    private void completeJournal(Work work) {
+        if (work.journalId != 0) {
+            journal.complete(work.journalId);
+            work.journalId = 0;
+        }
+    }
+
+    /*
+     * The first claim moves the work from STATE_QUEUED to STATE_RUNNING,
+     * later steps and parallel branches join it while it is still STATE_RUNNING.
+     * The runner is published before the state is checked again,
+     * so either cancelWork() sees the runner, or the runner sees STATE_CANCELLED.
+     *
+     * 第一次领取将 work 从 STATE_QUEUED 移动到 STATE_RUNNING ，
+     * 之后的步骤和并行分支在它仍为 STATE_RUNNING 时加入。
+     * 执行线程在再次检查状态之前先登记自己，
+     * 所以要么 cancelWork() 看到执行线程，要么执行线程看到 STATE_CANCELLED 。
+     */
+    private boolean claimWork(Work work, int slot) {
+        if (work.timeout >= 0 && (System.nanoTime() - work.expireAt >= 0
+                || (work.deadline >= 0 && System.currentTimeMillis() >= work.deadline))) {
+            return false;
+        }
+
+        while (true) {
+            int state = work.state.get();
+            if (state == STATE_RUNNING || (state == STATE_QUEUED && work.state.compareAndSet(STATE_QUEUED, STATE_RUNNING))) {
+                break;
+            } else if (state != STATE_QUEUED) {
+                return false;
+            }
+        }
+
+        work.runners.set(slot, Thread.currentThread());
+        if (work.state.get() != STATE_RUNNING) {
+            leaveWork(work, slot);
+            return false;
+        }
+
+        if (work.trace != null) {
+            work.trace.beginRun();
+        }
+
+        return true;
+    }
+
+    private void releaseWork(Work work, int slot) {
+        if (work.trace != null) {
+            work.trace.endRun();
+        }
+
+        leaveWork(work, slot);
+    }
+
+    private void leaveWork(Work work, int slot) {
+        if (!work.runners.compareAndSet(slot, Thread.currentThread(), null)) {
+            while (work.runners.get(slot) == INTERRUPTING) {
+                Thread.yield();
+            }
+        }
+
+        // Clear the interrupt which came too late, pool thread should be clean for next work.
+        // 清除来得太晚的中断，线程池中的线程应该干净地执行下一个 work 。
+        Thread.interrupted();
+    }
+
+    /*
+     * Detach the task from its work, and cancel the work when nobody waits for it anymore.
+     *
+     * 将任务从它的 work 上移除，当没有任何任务在等待这个 work 时取消它。
+     */
+    private void detachTask(Task task) {
+        Work work = task.work;
+        task.cancelled = true;
+
+        if (work == null) {
+            return;
+        }
+
+        work.detach(task);
+        if (work.head == null && !cancelWork(work) && work.state.get() == STATE_DONE) {
+            releaseResult(work);
+        }
+    }
+
+    /*
+     * The result will never be delivered: the work is done but nobody waits for it anymore,
+     * or it completed after being cancelled. Drop the payload now,
+     * a message still in the queue only carries an empty work.
+     *
+     * 结果永远不会被发送： work 已经结束但是没有任何任务在等待它，
+     * 或者它在被取消之后才结束。现在就丢弃负载，
+     * 仍在队列中的消息只会携带一个空的 work 。
+     */
+    private void releaseResult(Work work) {
+        release(work.result);
+        work.result = null;
+
+        if (work.items != null && work.items.results != null) {
+            Object[] results = work.items.results;
+            for (int i = 0; i < results.length; i++) {
+                release(results[i]);
+                results[i] = null;
+            }
+        }
+    }
+
+    private static void release(Object result) {
+        if (result instanceof Releasable) {
+            ((Releasable) result).release();
+        }
+    }
+
+    /*
+     * A parked task may hold a result nobody will claim, release it.
+     * A durable work outlives its owner, only the task is dropped.
+     *
+     * 被停放的任务可能持有一个不会被领取的结果，释放它。
+     * 持久的 work 比它的宿主活得更久，只有任务会被丢弃。
+     */
+    private void dropTask(Task task) {
+        Tracer tracer = this.tracer;
+        if (tracer != null) {
+            tracer.onDropped(tagOf(task));
+        }
+
+        if (task.parked) {
+            release(task.result);
+            task.result = null;
+        }
+
+        if (task.work != null && task.work.durable) {
+            task.cancelled = true;
+            task.work.detach(task);
+            return;
+        }
+
+        detachTask(task);
+    }
+
+    /*
+     * Replayed tasks have no owner, the journal stands for it and is never stopped.
+     *
+     * 重新执行的任务没有宿主，由日志代替它，并且永远不会被停止。
+     */
+    private void replay(List<TaskJournal.Record> recordList) {
+        for (TaskJournal.Record record : recordList) {
+            Builder builder = with(journal).assign(record.description);
+            builder.task.work.journalId = record.id;
+            builder.durable().defer().execute();
+        }
+    }
+
+    /*
+     * Return false when the work is already done, its result is on the way to MainThread.
+     *
+     * 当 work 已经结束时返回 false ，它的结果正在发往主线程的路上。
+     */
+    private boolean cancelWork(Work work) {
+        boolean cancelled = false;
+
+        while (true) {
+            int state = work.state.get();
+            if (state != STATE_QUEUED && state != STATE_RUNNING) {
+                break;
+            }
+
+            if (work.state.compareAndSet(state, STATE_CANCELLED)) {
+                cancelled = true;
+                break;
+            }
+        }
+
+        if (cancelled) {
+            interruptRunners(work);
+            endWork(work);
+            completeJournal(work);
+        }
+
+        if (work.progress != null) {
+            work.progress.clear();
+        }
+
+        if (work.channel != null) {
+            work.channel.clear();
+        }
+
+        finishWork(work);
+
+        return cancelled;
+    }
+
+    private void interruptRunners(Work work) {
+        for (int i = 0; i < work.runners.length(); i++) {
+            Object runner = work.runners.get(i);
+            if (runner instanceof Thread && work.runners.compareAndSet(i, runner, INTERRUPTING)) {
+                ((Thread) runner).interrupt();
+                work.runners.set(i, null);
+            }
+        }
+    }
+
+    private void finishWork(Work work) {
+        if (work.key != null && flightMap.get(work.key) == work) {
+            flightMap.remove(work.key);
+        }
+    }
+
+    private void dispatchUnregister(Scope scope) {
+        if (scope.owner == null || scope.taskTable.size() > 0) {
+            return;
+        }
+
+        onScopeEmpty(scope.kind, scope.owner);
+
+        scopeMap.remove(scope.owner);
+        resetScope(scope);
+    }
+
+    private void resetScope(Scope scope) {
+        for (int i = scope.taskTable.size() - 1; i >= 0; i--) {
+            dropTask(scope.taskTable.get(i));
+        }
+
+        scope.taskTable.clear();
+        scope.kind = 0;
+        scope.owner = null;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2015 Matthew Lee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.mthli.sugartask;
+
+import java.util.ArrayDeque;
+
+/*
+ * Concurrency limit of a group in TaskEngine, only touched on MainThread,
+ * running counts the items holding a slot, queue holds the items waiting for one.
+ *
+ * TaskEngine 中 group 的并发限制，只在主线程中访问，
+ * running 是占用空位的数量， queue 保存等待空位的对象。
+ */
+class TaskGroup<T> {
+    private int limit = 1;
+
+    private int running = 0;
+
+    private ArrayDeque<T> queue = new ArrayDeque<>();
+
+    void setLimit(int limit) {
+        this.limit = Math.max(1, limit);
+    }
+
+    int getRunningCount() {
+        return running;
+    }
+
+    int getQueueSize() {
+        return queue.size();
+    }
+
+    /*
+     * Take a slot and return true, or wait in the queue and return false when the group is full.
+     *
+     * 占用一个空位并返回 true ，或者在 group 已满时进入队列等待并返回 false 。
+     */
+    boolean enter(T item) {
+        if (running >= limit) {
+            queue.addLast(item);
+            return false;
+        }
+
+        running++;
+
+        return true;
+    }
+
+    /*
+     * Give the slot back when holding, otherwise leave the queue.
+     *
+     * 占用空位时交还空位，否则离开队列。
+     */
+    void leave(T item, boolean holding) {
+        if (holding) {
+            running--;
+        } else {
+            queue.remove(item);
+        }
+    }
+
+    /*
+     * The next waiting item which fits in the limit, null when there is none,
+     * it takes no slot until it enters again.
+     *
+     * 下一个在限制之内的等待对象，没有时为 null ，
+     * 在它再次进入之前不会占用空位。
+     */
+    T poll() {
+        return running < limit ? queue.pollFirst() : null;
+    }
+}
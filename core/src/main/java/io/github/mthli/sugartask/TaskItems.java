@@ -0,0 +1,51 @@
+/*
+ * Copyright 2015 Matthew Lee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.mthli.sugartask;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Descriptions of an assignAll() work in TaskEngine and their results by index,
+ * runners take them one by one through cursor.
+ * pending counts the descriptions and the runners which have not left yet,
+ * so the work is never completed, and never recycled, while a helper may still start.
+ * each is true when every result is also delivered on its own.
+ *
+ * TaskEngine 中 assignAll() work 的任务描述以及按照下标保存的结果，
+ * 执行线程通过 cursor 逐个领取它们。
+ * pending 统计尚未完成的任务描述以及尚未离开的执行线程，
+ * 所以当仍有辅助线程可能启动时， work 永远不会结束，也不会被回收。
+ * 当每个结果还需要单独发送时 each 为 true 。
+ */
+class TaskItems {
+    List<TaskEngine.TaskDescription> descriptions;
+
+    Object[] results;
+
+    Exception[] exceptions;
+
+    AtomicInteger cursor = new AtomicInteger(0);
+
+    AtomicInteger pending = new AtomicInteger(0);
+
+    boolean each = false;
+
+    TaskItems(List<TaskEngine.TaskDescription> descriptions) {
+        this.descriptions = descriptions;
+    }
+}
@@ -0,0 +1,505 @@
+/*
+ * Copyright 2015 Matthew Lee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.mthli.sugartask;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/*
+ * Append-only journal of durable tasks, see Builder.durable().
+ * Every durable task appends an ADD record with its serialized description, and a DONE record when it ends,
+ * records are written and fsynced in batches by the journal's own thread,
+ * and the file is compacted to the unfinished tasks when dead records outnumber them.
+ * Nothing touches the disk until the first record or recover(),
+ * so creating it in Application.onCreate() costs nothing.
+ *
+ * 持久任务的只追加日志，参考 Builder.durable() 。
+ * 每个持久任务会追加一条包含序列化描述的 ADD 记录，并在结束时追加一条 DONE 记录，
+ * 记录由日志自己的线程批量写入并 fsync ，
+ * 当失效的记录多于未完成的任务时，文件会被压缩为只包含未完成的任务。
+ * 在第一条记录或者 recover() 之前不会访问磁盘，
+ * 所以在 Application.onCreate() 中创建它没有任何开销。
+ */
+public class TaskJournal {
+    /*
+     * Called on the journal thread with the tasks which were not finished by the last process.
+     *
+     * 在日志线程中调用，传入上一个进程没有完成的任务。
+     */
+    interface Recovery {
+        void onRecover(List<Record> recordList);
+    }
+
+    static class Record {
+        long id;
+
+        TaskEngine.TaskDescription description;
+
+        private Record(long id, TaskEngine.TaskDescription description) {
+            this.id = id;
+            this.description = description;
+        }
+    }
+
+    private static final byte TYPE_ADD = 1;
+
+    private static final byte TYPE_DONE = 2;
+
+    private static final int HEADER_SIZE = 4 + 4 + 1 + 8;
+
+    private static final int DEFAULT_COMPACT_THRESHOLD = 64;
+
+    private File file;
+
+    private int compactThreshold;
+
+    private ThreadPoolExecutor executor;
+
+    /*
+     * Ids are unique across processes as long as less than 2^20 tasks start in one millisecond.
+     *
+     * 只要一毫秒内启动的任务少于 2^20 个，id 在不同进程之间也是唯一的。
+     */
+    private final long epoch = System.currentTimeMillis() << 20;
+
+    private AtomicLong sequence = new AtomicLong(1);
+
+    private AtomicInteger liveCount = new AtomicInteger(0);
+
+    private final Object lock = new Object();
+
+    private List<byte[]> pendingList = new ArrayList<>();
+
+    private boolean flushScheduled = false;
+
+    /*
+     * Only touched on the journal thread.
+     *
+     * 只在日志线程中访问。
+     */
+    private boolean loaded = false;
+
+    private FileOutputStream output;
+
+    private Map<Long, byte[]> liveMap = new LinkedHashMap<>();
+
+    private int deadCount = 0;
+
+    /*
+     * The file of the last process is read once, a reload after an error doesn't read its records again.
+     *
+     * 上一个进程的文件只读取一次，出错之后的重新加载不会再次读取它的记录。
+     */
+    private boolean recovered = false;
+
+    private List<Record> recoveredList;
+
+    private volatile Exception failure;
+
+    private Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    public TaskJournal(File file) {
+        this(file, DEFAULT_COMPACT_THRESHOLD);
+    }
+
+    public TaskJournal(File file, int compactThreshold) {
+        this.file = file;
+        this.compactThreshold = Math.max(1, compactThreshold);
+
+        ThreadFactory factory = new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "SugarTask-journal");
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+
+        executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), factory);
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /*
+     * How many tasks are still unfinished in the journal, only exact after the journal is loaded.
+     * It's a snapshot taken by the journal thread after every batch, so it never blocks the caller.
+     *
+     * 日志中仍未完成的任务数量，只有在日志加载之后才准确。
+     * 它是日志线程在每一批之后记下的快照，所以永远不会阻塞调用者。
+     */
+    public int getLiveCount() {
+        return liveCount.get();
+    }
+
+    /*
+     * The last error of reading or writing the file, null if there is none.
+     * The journal is best effort, so its errors never reach the tasks,
+     * check it to know that durable tasks may not survive the process.
+     *
+     * 读写文件时发生的最后一个错误，没有错误时为 null 。
+     * 日志只是尽力而为，所以它的错误永远不会传递给任务，
+     * 检查它就可以知道持久任务可能无法在进程结束后保留下来。
+     */
+    public Exception getFailure() {
+        return failure;
+    }
+
+    /*
+     * Serialize description on the caller thread, so later changes of it don't leak into the journal.
+     *
+     * 在调用者线程中序列化 description ，这样之后对它的修改不会影响日志。
+     */
+    long append(TaskEngine.TaskDescription description) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream output = new ObjectOutputStream(bytes);
+        output.writeObject(description);
+        output.close();
+
+        long id = epoch + sequence.getAndIncrement();
+        enqueue(encode(TYPE_ADD, id, bytes.toByteArray()));
+
+        return id;
+    }
+
+    void complete(long id) {
+        enqueue(encode(TYPE_DONE, id, new byte[0]));
+    }
+
+    /*
+     * Load the journal on its own thread, and hand the unfinished tasks of the last process to recovery once.
+     * If the file is read but can't be compacted, the tasks read so far are still handed over,
+     * they complete their records as usual, and the failure is kept for getFailure().
+     *
+     * 在日志自己的线程中加载日志，并将上一个进程没有完成的任务交给 recovery ，只会交出一次。
+     * 如果文件已经读取但无法压缩，已经读到的任务仍然会被交出，
+     * 它们会像平常一样完成自己的记录，而这个错误会保留给 getFailure() 。
+     */
+    void recover(final Recovery recovery) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    load();
+                } catch (IOException | RuntimeException e) {
+                    failure = e;
+                }
+
+                List<Record> recordList = recoveredList;
+                recoveredList = null;
+
+                if (recordList != null && !recordList.isEmpty()) {
+                    recovery.onRecover(recordList);
+                }
+            }
+        });
+    }
+
+    /*
+     * Every record which arrives while the journal thread writes goes into the next batch,
+     * so there is one fsync per batch instead of one per record.
+     *
+     * 日志线程写入期间到达的所有记录都会进入下一批，
+     * 所以每一批只需要一次 fsync ，而不是每条记录一次。
+     */
+    private void enqueue(byte[] record) {
+        synchronized (lock) {
+            pendingList.add(record);
+            if (flushScheduled) {
+                return;
+            }
+
+            flushScheduled = true;
+        }
+
+        executor.execute(flushRunnable);
+    }
+
+    private void flush() {
+        List<byte[]> recordList;
+
+        synchronized (lock) {
+            recordList = pendingList;
+            pendingList = new ArrayList<>();
+            flushScheduled = false;
+        }
+
+        try {
+            load();
+
+            if (output == null) {
+                output = new FileOutputStream(file, true);
+            }
+
+            ByteArrayOutputStream batch = new ByteArrayOutputStream();
+            for (byte[] record : recordList) {
+                batch.write(record);
+            }
+
+            try {
+                output.write(batch.toByteArray());
+                output.getFD().sync();
+            } catch (IOException e) {
+                // Part of the batch may be on disk, so the next batch loads the file again.
+                // 这一批可能有一部分已经写入磁盘，所以下一批会重新加载文件。
+                FileOutputStream broken = output;
+                output = null;
+                loaded = false;
+                broken.close();
+                throw e;
+            }
+
+            // Only what is on disk is tracked.
+            // 只记录已经写入磁盘的内容。
+            for (byte[] record : recordList) {
+                track(record);
+            }
+
+            liveCount.set(liveMap.size());
+
+            if (deadCount >= compactThreshold && deadCount > liveMap.size()) {
+                compact();
+            }
+        } catch (IOException | RuntimeException e) {
+            // The journal is best effort, tasks still run without it.
+            // 日志只是尽力而为，没有它任务仍然会执行。
+            failure = e;
+        }
+    }
+
+    /*
+     * Read every record of the last process, stop at the first torn or corrupted one,
+     * then rewrite the file with only the unfinished tasks.
+     * The journal is only loaded once the rewrite succeeds, otherwise the next batch loads it again.
+     *
+     * 读取上一个进程的所有记录，遇到第一条不完整或者损坏的记录时停止，
+     * 然后只用未完成的任务重写文件。
+     * 只有重写成功之后日志才算加载完成，否则下一批会重新加载它。
+     */
+    private void load() throws IOException {
+        if (loaded) {
+            return;
+        }
+
+        liveMap.clear();
+        deadCount = 0;
+
+        if (file.exists()) {
+            long remaining = file.length();
+            DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+            try {
+                while (true) {
+                    byte[] record = readRecord(input, remaining);
+                    if (record == null) {
+                        break;
+                    }
+
+                    remaining -= record.length;
+                    track(record);
+                }
+            } catch (IOException | RuntimeException e) {
+                // Anything unreadable is the end of the log.
+                // 任何无法读取的内容都被当作日志的结尾。
+            } finally {
+                input.close();
+            }
+        }
+
+        List<Record> recordList = new ArrayList<>();
+        for (Map.Entry<Long, byte[]> entry : new ArrayList<>(liveMap.entrySet())) {
+            TaskEngine.TaskDescription description = decode(entry.getValue());
+            if (description != null) {
+                recordList.add(new Record(entry.getKey(), description));
+            } else {
+                liveMap.remove(entry.getKey());
+            }
+        }
+
+        if (!recovered) {
+            recoveredList = recordList;
+            recovered = true;
+        }
+
+        compact();
+
+        loaded = true;
+        liveCount.set(liveMap.size());
+    }
+
+    private void compact() throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream compacted = new FileOutputStream(temp);
+
+        try {
+            for (byte[] record : liveMap.values()) {
+                compacted.write(record);
+            }
+
+            compacted.getFD().sync();
+        } finally {
+            compacted.close();
+        }
+
+        if (output != null) {
+            output.close();
+            output = null;
+        }
+
+        boolean renamed = temp.renameTo(file);
+        output = new FileOutputStream(file, true);
+
+        if (!renamed) {
+            throw new IOException("Can't replace " + file);
+        }
+
+        deadCount = 0;
+    }
+
+    private void track(byte[] record) {
+        byte type = record[8];
+        long id = readLong(record, 9);
+
+        if (type == TYPE_ADD) {
+            liveMap.put(id, record);
+        } else if (liveMap.remove(id) != null) {
+            deadCount += 2;
+        } else {
+            deadCount++;
+        }
+    }
+
+    /*
+     * [length][crc][type][id][payload], length and crc cover type, id and payload.
+     *
+     * [length][crc][type][id][payload] ， length 和 crc 覆盖 type 、 id 和 payload 。
+     */
+    private static byte[] encode(byte type, long id, byte[] payload) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_SIZE + payload.length);
+        DataOutputStream output = new DataOutputStream(bytes);
+
+        try {
+            output.writeInt(1 + 8 + payload.length);
+            output.writeInt(0);
+            output.writeByte(type);
+            output.writeLong(id);
+            output.write(payload);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        byte[] record = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(record, 8, record.length - 8);
+        writeInt(record, 4, (int) crc.getValue());
+
+        return record;
+    }
+
+    /*
+     * The length is checked against the bytes left in the file before anything is allocated,
+     * so a corrupted length ends the log instead of allocating a huge or negative array.
+     *
+     * 在分配任何内存之前先用文件剩余的字节数检查 length ，
+     * 所以损坏的 length 只会结束日志，而不会分配巨大或者负数长度的数组。
+     */
+    private static byte[] readRecord(DataInputStream input, long remaining) throws IOException {
+        int length;
+        int crc;
+
+        try {
+            length = input.readInt();
+            crc = input.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+
+        if (length < 1 + 8 || length > remaining - 8) {
+            return null;
+        }
+
+        byte[] record = new byte[8 + length];
+        writeInt(record, 0, length);
+        writeInt(record, 4, crc);
+
+        try {
+            input.readFully(record, 8, length);
+        } catch (EOFException e) {
+            return null;
+        }
+
+        CRC32 check = new CRC32();
+        check.update(record, 8, length);
+
+        return (int) check.getValue() == crc ? record : null;
+    }
+
+    private static TaskEngine.TaskDescription decode(byte[] record) {
+        try {
+            ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(record, HEADER_SIZE, record.length - HEADER_SIZE));
+            try {
+                return (TaskEngine.TaskDescription) input.readObject();
+            } finally {
+                input.close();
+            }
+        } catch (Exception e) {
+            // The class changed or is gone, drop the task.
+            // 类已经改变或者不存在了，丢弃这个任务。
+            return null;
+        }
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
+        }
+
+        return value;
+    }
+}
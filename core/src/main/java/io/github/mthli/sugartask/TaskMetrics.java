@@ -0,0 +1,288 @@
+/*
+ * Copyright 2015 Matthew Lee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.mthli.sugartask;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Default TaskEngine.Tracer, keeps histograms of queue wait, run time and delivery latency,
+ * and counters of finished, broken, cancelled and dropped tasks,
+ * in total and per tag, at most maxTags tags, the others only count in total.
+ * Read it by export() from any thread.
+ *
+ * 默认的 TaskEngine.Tracer ，记录排队等待、执行时间和分发延迟的直方图，
+ * 以及完成、异常、取消和丢弃的任务计数，
+ * 包括总计和每个 tag 的数据，最多 maxTags 个 tag ，其余的只计入总计。
+ * 可以在任意线程中通过 export() 读取。
+ */
+public class TaskMetrics implements TaskEngine.Tracer {
+    public interface Exporter {
+        /*
+         * tag is null for the total.
+         *
+         * 总计的 tag 为 null 。
+         */
+        void export(String tag, Stats stats);
+    }
+
+    /*
+     * Log2 buckets of nanoseconds, so percentiles are within 2x of the real value.
+     *
+     * 以纳秒为单位的 log2 分桶，所以百分位数与真实值的误差在 2 倍以内。
+     */
+    public static class Histogram {
+        private long[] buckets = new long[64];
+
+        private long count = 0L;
+
+        private long sum = 0L;
+
+        private long max = 0L;
+
+        private void record(long nanos) {
+            if (nanos < 0) {
+                return;
+            }
+
+            buckets[63 - Long.numberOfLeadingZeros(nanos | 1)]++;
+            count++;
+            sum += nanos;
+            max = Math.max(max, nanos);
+        }
+
+        private Histogram copy() {
+            Histogram histogram = new Histogram();
+            histogram.buckets = buckets.clone();
+            histogram.count = count;
+            histogram.sum = sum;
+            histogram.max = max;
+
+            return histogram;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMeanNanos() {
+            return count > 0 ? sum / count : 0L;
+        }
+
+        public long getMaxNanos() {
+            return max;
+        }
+
+        /*
+         * Upper bound of the bucket which holds the percentile, percentile in [0, 1].
+         *
+         * 百分位数所在分桶的上界， percentile 取值范围为 [0, 1] 。
+         */
+        public long getPercentileNanos(double percentile) {
+            long rank = (long) Math.ceil(count * percentile);
+            long seen = 0L;
+
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank && seen > 0) {
+                    return Math.min(max, i >= 62 ? Long.MAX_VALUE : (2L << i) - 1);
+                }
+            }
+
+            return max;
+        }
+    }
+
+    public static class Stats {
+        private Histogram queue = new Histogram();
+
+        private Histogram run = new Histogram();
+
+        private Histogram delivery = new Histogram();
+
+        private long finished = 0L;
+
+        private long broken = 0L;
+
+        private long cancelled = 0L;
+
+        private long dropped = 0L;
+
+        private Stats copy() {
+            Stats stats = new Stats();
+            stats.queue = queue.copy();
+            stats.run = run.copy();
+            stats.delivery = delivery.copy();
+            stats.finished = finished;
+            stats.broken = broken;
+            stats.cancelled = cancelled;
+            stats.dropped = dropped;
+
+            return stats;
+        }
+
+        /*
+         * From scheduled to started on WorkerThread.
+         *
+         * 从被调度到在后台线程中开始执行。
+         */
+        public Histogram getQueue() {
+            return queue;
+        }
+
+        /*
+         * From started to finished on WorkerThread, including every step.
+         *
+         * 从在后台线程中开始执行到执行结束，包括所有的步骤。
+         */
+        public Histogram getRun() {
+            return run;
+        }
+
+        /*
+         * From finished on WorkerThread to delivered on MainThread.
+         *
+         * 从在后台线程中执行结束到在主线程中发送。
+         */
+        public Histogram getDelivery() {
+            return delivery;
+        }
+
+        public long getFinishedCount() {
+            return finished;
+        }
+
+        public long getBrokenCount() {
+            return broken;
+        }
+
+        public long getCancelledCount() {
+            return cancelled;
+        }
+
+        public long getDroppedCount() {
+            return dropped;
+        }
+    }
+
+    private static final int DEFAULT_MAX_TAGS = 64;
+
+    private int maxTags;
+
+    private Stats total = new Stats();
+
+    private Map<String, Stats> tagMap = new LinkedHashMap<>();
+
+    public TaskMetrics() {
+        this(DEFAULT_MAX_TAGS);
+    }
+
+    public TaskMetrics(int maxTags) {
+        this.maxTags = maxTags;
+    }
+
+    @Override
+    public void beginRun(String tag) {
+    }
+
+    @Override
+    public void endRun(String tag) {
+    }
+
+    @Override
+    public synchronized void onDelivered(String tag, boolean broken, long queueNanos, long runNanos, long deliveryNanos) {
+        record(total, broken, queueNanos, runNanos, deliveryNanos);
+
+        Stats stats = statsOf(tag);
+        if (stats != null) {
+            record(stats, broken, queueNanos, runNanos, deliveryNanos);
+        }
+    }
+
+    @Override
+    public synchronized void onCancelled(String tag) {
+        total.cancelled++;
+
+        Stats stats = statsOf(tag);
+        if (stats != null) {
+            stats.cancelled++;
+        }
+    }
+
+    @Override
+    public synchronized void onDropped(String tag) {
+        total.dropped++;
+
+        Stats stats = statsOf(tag);
+        if (stats != null) {
+            stats.dropped++;
+        }
+    }
+
+    /*
+     * Export a copy of the total first, then every tag in the order they first appeared.
+     *
+     * 先导出总计的副本，然后按照首次出现的顺序导出每个 tag 。
+     */
+    public void export(Exporter exporter) {
+        Stats copy;
+        Map<String, Stats> copyMap = new LinkedHashMap<>();
+
+        synchronized (this) {
+            copy = total.copy();
+            for (Map.Entry<String, Stats> entry : tagMap.entrySet()) {
+                copyMap.put(entry.getKey(), entry.getValue().copy());
+            }
+        }
+
+        exporter.export(null, copy);
+        for (Map.Entry<String, Stats> entry : copyMap.entrySet()) {
+            exporter.export(entry.getKey(), entry.getValue());
+        }
+    }
+
+    public synchronized void reset() {
+        total = new Stats();
+        tagMap.clear();
+    }
+
+    private Stats statsOf(String tag) {
+        if (tag == null) {
+            return null;
+        }
+
+        Stats stats = tagMap.get(tag);
+        if (stats == null && tagMap.size() < maxTags) {
+            stats = new Stats();
+            tagMap.put(tag, stats);
+        }
+
+        return stats;
+    }
+
+    private static void record(Stats stats, boolean broken, long queueNanos, long runNanos, long deliveryNanos) {
+        if (broken) {
+            stats.broken++;
+        } else {
+            stats.finished++;
+        }
+
+        stats.queue.record(queueNanos);
+        stats.run.record(runNanos);
+        stats.delivery.record(deliveryNanos);
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2015 Matthew Lee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.mthli.sugartask;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+ * Progress of a coalesce() work in TaskEngine,
+ * only the latest message (or the merged one by combiner) waits for MainThread.
+ *
+ * TaskEngine 中 coalesce() work 的进度，
+ * 只有最后的消息（或者通过 combiner 合并后的消息）等待主线程取走。
+ */
+class TaskProgress<M> {
+    private TaskEngine.Combiner<M> combiner;
+
+    private long interval;
+
+    private AtomicReference<M> pending = new AtomicReference<>();
+
+    TaskProgress(TaskEngine.Combiner<M> combiner, long interval) {
+        this.combiner = combiner;
+        this.interval = interval;
+    }
+
+    long getInterval() {
+        return interval;
+    }
+
+    /*
+     * Return true when nothing was waiting, only then the caller schedules a delivery,
+     * the others are merged into it until MainThread takes it away.
+     *
+     * 之前没有消息在等待时返回 true ，只有此时调用者才安排一次发送，
+     * 在主线程取走它之前，其余的消息都会被合并进来。
+     */
+    boolean offer(M message) {
+        while (true) {
+            M older = pending.get();
+
+            M newer = message;
+            if (older != null && combiner != null) {
+                newer = combiner.combine(older, message);
+            }
+
+            if (pending.compareAndSet(older, newer)) {
+                return older == null;
+            }
+        }
+    }
+
+    M take() {
+        return pending.getAndSet(null);
+    }
+
+    void clear() {
+        pending.set(null);
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2015 Matthew Lee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.mthli.sugartask;
+
+import java.util.Comparator;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Default TaskEngine.Scheduler,
+ * CPU-bound and IO-bound tasks run in separate pools,
+ * each pool takes tasks by priority from a bounded queue.
+ *
+ * 默认的 TaskEngine.Scheduler ，
+ * 计算密集型任务和 IO 密集型任务分别在不同的线程池中执行，
+ * 每个线程池按照优先级从一个有界队列中获取任务。
+ */
+public class TaskScheduler implements TaskEngine.Scheduler {
+    private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+
+    public static final int CPU_THREADS = Math.max(2, Math.min(CPU_COUNT - 1, 4));
+
+    public static final int IO_THREADS = Math.max(4, CPU_COUNT * 2);
+
+    public static final int QUEUE_CAPACITY = 128;
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private ThreadPoolExecutor cpuExecutor;
+
+    private ThreadPoolExecutor ioExecutor;
+
+    private AtomicLong sequence = new AtomicLong(0);
+
+    public TaskScheduler() {
+        this(CPU_THREADS, IO_THREADS, QUEUE_CAPACITY);
+    }
+
+    /*
+     * When a queue is full, the task is always delivered to BrokenListener with RejectedExecutionException,
+     * so the caller knows it should slow down.
+     * Other policies would drop tasks without any callback, or run them on MainThread, so they are not offered.
+     *
+     * 当队列已满时，任务总是以 RejectedExecutionException 的形式交给 BrokenListener ，
+     * 这样调用者就知道应该放慢速度了。
+     * 其他的策略会在没有任何回调的情况下丢弃任务，或者在主线程中执行它们，所以不提供这些策略。
+     */
+    public TaskScheduler(int cpuThreads, int ioThreads, int queueCapacity) {
+        cpuExecutor = buildExecutor("cpu", cpuThreads, queueCapacity);
+        ioExecutor = buildExecutor("io", ioThreads, queueCapacity);
+    }
+
+    @Override
+    public void schedule(Runnable runnable, int priority, int type) {
+        ThreadPoolExecutor executor = type == TaskEngine.TYPE_IO ? ioExecutor : cpuExecutor;
+
+        Entry entry = runnable instanceof Entry ? (Entry) runnable : new RunnableEntry(runnable);
+        entry.priority = priority;
+        entry.sequence = sequence.getAndIncrement();
+        executor.execute(entry);
+    }
+
+    /*
+     * How many tasks are waiting in the queue of type,
+     * can be used to hold back optional work before it is rejected.
+     *
+     * type 类型的队列中正在等待的任务数量，
+     * 可以用于在任务被拒绝之前暂缓非必要的任务。
+     */
+    public int getQueueSize(int type) {
+        return (type == TaskEngine.TYPE_IO ? ioExecutor : cpuExecutor).getQueue().size();
+    }
+
+    private static ThreadPoolExecutor buildExecutor(final String name, int threads, int queueCapacity) {
+        ThreadFactory factory = new ThreadFactory() {
+            private AtomicInteger count = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "SugarTask-" + name + "-" + count.getAndIncrement());
+            }
+        };
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new BoundedPriorityQueue(queueCapacity), factory,
+                new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+
+        return executor;
+    }
+
+    /*
+     * Lower priority value runs first, the same priority runs in submission order,
+     * TaskEngine's own work extends Entry, so it is queued without a wrapper.
+     *
+     * 优先级的值越小越先执行，相同优先级按照提交顺序执行，
+     * TaskEngine 自己的 work 继承了 Entry ，所以入队时不需要再包装一层。
+     */
+    abstract static class Entry implements Runnable {
+        int priority;
+
+        long sequence;
+    }
+
+    private static class RunnableEntry extends Entry {
+        private Runnable runnable;
+
+        private RunnableEntry(Runnable runnable) {
+            this.runnable = runnable;
+        }
+
+        @Override
+        public void run() {
+            runnable.run();
+        }
+    }
+
+    private static class EntryComparator implements Comparator<Runnable> {
+        @Override
+        public int compare(Runnable lhs, Runnable rhs) {
+            Entry left = (Entry) lhs;
+            Entry right = (Entry) rhs;
+
+            if (left.priority != right.priority) {
+                return left.priority < right.priority ? -1 : 1;
+            }
+
+            return left.sequence < right.sequence ? -1 : (left.sequence == right.sequence ? 0 : 1);
+        }
+    }
+
+    /*
+     * PriorityBlockingQueue is unbounded, refuse offer() when it is full,
+     * so ThreadPoolExecutor rejects the task with RejectedExecutionException.
+     *
+     * PriorityBlockingQueue 是无界的，当它满了时拒绝 offer() ，
+     * 这样 ThreadPoolExecutor 就会以 RejectedExecutionException 拒绝这个任务。
+     */
+    private static class BoundedPriorityQueue extends PriorityBlockingQueue<Runnable> {
+        private static final long serialVersionUID = 1L;
+
+        private int capacity;
+
+        private BoundedPriorityQueue(int capacity) {
+            super(Math.max(1, Math.min(capacity, 11)), new EntryComparator());
+            this.capacity = capacity;
+        }
+
+        @Override
+        public synchronized boolean offer(Runnable runnable) {
+            return size() < capacity && super.offer(runnable);
+        }
+
+        @Override
+        public int remainingCapacity() {
+            return Math.max(0, capacity - size());
+        }
+    }
+}
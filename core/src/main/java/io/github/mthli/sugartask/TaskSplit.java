@@ -0,0 +1,77 @@
+/*
+ * Copyright 2015 Matthew Lee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.mthli.sugartask;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+ * Input of a mapReduce() work in TaskEngine, the work only keeps it,
+ * every attempt splits it again by attempt(), and runners only read the input through the attempt.
+ * pending counts the chunks and the runners which have not left yet,
+ * so the attempt only ends, and the work is only recycled or retried, after every runner has left.
+ *
+ * TaskEngine 中 mapReduce() work 的输入， work 只负责保存它，
+ * 每一次尝试都会通过 attempt() 重新划分，执行线程只通过这次尝试读取输入。
+ * pending 统计尚未完成的块以及尚未离开的执行线程，
+ * 所以只有在所有执行线程都离开之后，这次尝试才会结束， work 才会被回收或者重试。
+ */
+class TaskSplit {
+    private static final int CHUNKS_PER_RUNNER = 4;
+
+    List<?> input;
+
+    TaskEngine.Mapper mapper;
+
+    TaskEngine.Reducer reducer;
+
+    int chunkSize;
+
+    Object[] results;
+
+    int runners;
+
+    AtomicInteger cursor = new AtomicInteger(0);
+
+    AtomicInteger pending;
+
+    AtomicReference<Exception> failure = new AtomicReference<>();
+
+    TaskSplit(List<?> input, TaskEngine.Mapper mapper, TaskEngine.Reducer reducer) {
+        this.input = input;
+        this.mapper = mapper;
+        this.reducer = reducer;
+    }
+
+    /*
+     * About CHUNKS_PER_RUNNER chunks per runner, so a runner which gets slow chunks is helped by the others.
+     *
+     * 每个执行线程大约分到 CHUNKS_PER_RUNNER 个块，这样拿到慢块的执行线程可以得到其他线程的帮助。
+     */
+    TaskSplit attempt(int runners) {
+        TaskSplit split = new TaskSplit(input, mapper, reducer);
+
+        int size = input.size();
+        split.chunkSize = Math.max(1, (size + runners * CHUNKS_PER_RUNNER - 1) / (runners * CHUNKS_PER_RUNNER));
+        split.results = new Object[(size + split.chunkSize - 1) / split.chunkSize];
+        split.runners = Math.max(1, Math.min(split.results.length, runners));
+        split.pending = new AtomicInteger(split.results.length + split.runners);
+
+        return split;
+    }
+}
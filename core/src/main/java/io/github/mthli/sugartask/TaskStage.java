@@ -0,0 +1,57 @@
+/*
+ * Copyright 2015 Matthew Lee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.mthli.sugartask;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+ * One step of a composed work in TaskEngine,
+ * the first branch is the continuation (or the description for the first step),
+ * the others run in parallel on other WorkerThreads,
+ * and the last finished branch moves the work to the next step.
+ *
+ * TaskEngine 中组合任务的一个步骤，
+ * 第一个分支是 continuation （第一个步骤则是任务描述），
+ * 其他分支在其他后台线程中并行执行，
+ * 最后结束的分支负责将任务推进到下一个步骤。
+ */
+class TaskStage {
+    TaskEngine.Continuation continuation;
+
+    List<TaskEngine.TaskDescription> branchList = new ArrayList<>();
+
+    TaskEngine.Zipper zipper;
+
+    Object input;
+
+    Object[] results;
+
+    AtomicInteger pending = new AtomicInteger(0);
+
+    AtomicReference<Exception> failure = new AtomicReference<>();
+
+    TaskStage(TaskEngine.Continuation continuation) {
+        this.continuation = continuation;
+    }
+
+    Object run(TaskEngine.TaskDescription description, Object previous) {
+        return continuation != null ? continuation.onBackground(previous) : description.onBackground();
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2015 Matthew Lee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.mthli.sugartask;
+
+/*
+ * Delivered to BrokenListener when a task overruns its timeout() or deadline(),
+ * isStarted() tells whether it was interrupted while running or skipped while queued.
+ *
+ * 当任务超过它的 timeout() 或者 deadline() 时被发送给 BrokenListener ，
+ * isStarted() 表示它是在执行时被中断，还是在排队时被跳过。
+ */
+public class TaskTimeoutException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    private long timeoutMillis;
+
+    private boolean started;
+
+    public TaskTimeoutException(long timeoutMillis, boolean started) {
+        super("Task timed out after " + timeoutMillis + "ms while " + (started ? "running" : "queued"));
+        this.timeoutMillis = timeoutMillis;
+        this.started = started;
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    public boolean isStarted() {
+        return started;
+    }
+}
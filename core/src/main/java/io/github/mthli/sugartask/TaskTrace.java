@@ -0,0 +1,67 @@
+/*
+ * Copyright 2015 Matthew Lee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.mthli.sugartask;
+
+/*
+ * Timestamps of one work in TaskEngine for its Tracer,
+ * a work only gets one when a tracer is set, so no time is taken without a tracer.
+ *
+ * TaskEngine 中一个 work 用于 Tracer 的时间戳，
+ * 只有设置了 tracer 时 work 才会得到它，所以没有 tracer 时不会进行任何计时。
+ */
+class TaskTrace {
+    private TaskEngine.Tracer tracer;
+
+    private String tag;
+
+    private long submitAt;
+
+    private long startAt = 0L;
+
+    private long endAt = 0L;
+
+    TaskTrace(TaskEngine.Tracer tracer, String tag) {
+        this.tracer = tracer;
+        this.tag = tag;
+        this.submitAt = System.nanoTime();
+    }
+
+    void beginRun() {
+        if (startAt == 0) {
+            startAt = System.nanoTime();
+        }
+
+        tracer.beginRun(tag);
+    }
+
+    void endRun() {
+        tracer.endRun(tag);
+    }
+
+    void end() {
+        endAt = System.nanoTime();
+    }
+
+    void delivered(boolean broken) {
+        long now = System.nanoTime();
+        long queue = startAt != 0 ? startAt - submitAt : -1;
+        long run = startAt != 0 && endAt != 0 ? endAt - startAt : -1;
+        long delivery = endAt != 0 ? now - endAt : -1;
+
+        tracer.onDelivered(tag, broken, queue, run, delivery);
+    }
+}
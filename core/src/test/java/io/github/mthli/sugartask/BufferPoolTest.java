@@ -0,0 +1,82 @@
+/*
+ * Copyright 2015 Matthew Lee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.mthli.sugartask;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * Arrays go back to the pool once and come out again by size class.
+ *
+ * 数组只会回到池中一次，并且按照大小等级再次被取出。
+ */
+public class BufferPoolTest {
+    @Test
+    public void recycledArrayIsReusedBySameSizeClass() {
+        BufferPool pool = new BufferPool();
+
+        BufferPool.Buffer first = pool.acquire(100);
+        byte[] array = first.array();
+        assertEquals(BufferPool.MIN_SIZE, array.length);
+
+        first.recycle();
+        assertNull(first.array());
+        assertEquals(BufferPool.MIN_SIZE, pool.getBytes());
+
+        BufferPool.Buffer second = pool.acquire(BufferPool.MIN_SIZE);
+        assertTrue(second.array() == array);
+        assertEquals(0, pool.getBytes());
+        assertEquals(1, pool.getHitCount());
+        assertEquals(1, pool.getMissCount());
+    }
+
+    @Test
+    public void recycleTwiceOffersOnce() {
+        BufferPool pool = new BufferPool();
+
+        BufferPool.Buffer buffer = pool.acquire(BufferPool.MIN_SIZE);
+        buffer.recycle();
+        buffer.release();
+
+        assertEquals(BufferPool.MIN_SIZE, pool.getBytes());
+    }
+
+    /*
+     * Only whole size classes are pooled, and never more than maxBytes.
+     *
+     * 只有完整的大小等级会被放入池中，并且永远不会超过 maxBytes 。
+     */
+    @Test
+    public void poolKeepsWholeSizeClassesWithinMaxBytes() {
+        BufferPool pool = new BufferPool(BufferPool.MIN_SIZE * 3);
+
+        BufferPool.Buffer small = pool.acquire(BufferPool.MIN_SIZE);
+        BufferPool.Buffer large = pool.acquire(BufferPool.MIN_SIZE * 2);
+        BufferPool.Buffer extra = pool.acquire(BufferPool.MIN_SIZE * 2);
+
+        large.recycle();
+        extra.recycle();
+        small.recycle();
+        assertEquals(BufferPool.MIN_SIZE * 3, pool.getBytes());
+
+        pool.clear();
+        assertEquals(0, pool.getBytes());
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2015 Matthew Lee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.mthli.sugartask;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/*
+ * Strings weigh their length, so the weight of every step is easy to follow.
+ *
+ * 字符串的重量就是它的长度，这样每一步的重量都很容易计算。
+ */
+public class ResultCacheTest {
+    private static final long TTL = 60000;
+
+    private ResultCache cache;
+
+    @Before
+    public void setup() {
+        cache = new ResultCache(10, new ResultCache.Weigher() {
+            @Override
+            public int weigh(String key, Object value) {
+                return ((String) value).length();
+            }
+        });
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvictedByWeight() {
+        cache.put("a", "aaaa", TTL);
+        cache.put("b", "bbbb", TTL);
+        assertEquals("aaaa", cache.get("a"));
+
+        cache.put("c", "cccc", TTL);
+
+        assertNull(cache.get("b"));
+        assertEquals("aaaa", cache.get("a"));
+        assertEquals("cccc", cache.get("c"));
+        assertEquals(8, cache.getWeight());
+    }
+
+    @Test
+    public void resultHeavierThanTheCacheIsNotKept() {
+        cache.put("a", "aaaa", TTL);
+        cache.put("huge", "hhhhhhhhhhh", TTL);
+
+        assertNull(cache.get("huge"));
+        assertEquals("aaaa", cache.get("a"));
+        assertEquals(4, cache.getWeight());
+    }
+
+    @Test
+    public void replacedEntryGivesItsWeightBack() {
+        cache.put("a", "aaaaaaaa", TTL);
+        cache.put("a", "aa", TTL);
+        assertEquals(2, cache.getWeight());
+
+        cache.put("a", "aaa", 0);
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.getWeight());
+    }
+
+    @Test
+    public void trimToWeightEvictsOldestFirst() {
+        cache.put("a", "aaa", TTL);
+        cache.put("b", "bbb", TTL);
+        cache.put("c", "ccc", TTL);
+
+        cache.trimToWeight(4);
+        assertNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("ccc", cache.get("c"));
+
+        cache.trimToWeight(0);
+        assertEquals(0, cache.getWeight());
+    }
+
+    @Test
+    public void lookupTellsNullResultFromMiss() {
+        ResultCache countCache = new ResultCache(10);
+        countCache.put("null", null, TTL);
+
+        ResultCache.Entry entry = countCache.lookup("null");
+        assertNotNull(entry);
+        assertNull(entry.value);
+        assertNull(countCache.lookup("missing"));
+
+        assertEquals(1, countCache.getHitCount());
+        assertEquals(1, countCache.getMissCount());
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2015 Matthew Lee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.mthli.sugartask;
+
+import org.junit.Test;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * Without jitter the backoff is exact, with jitter it only gets shorter.
+ *
+ * 没有 jitter 时退避时间是精确的，有 jitter 时它只会变短。
+ */
+public class RetryPolicyTest {
+    @Test
+    public void maxAttemptsCountsTheFirstRun() {
+        RetryPolicy policy = new RetryPolicy(3, 10, 1000);
+        Exception e = new IOException();
+
+        assertTrue(policy.shouldRetry(e, 1));
+        assertTrue(policy.shouldRetry(e, 2));
+        assertFalse(policy.shouldRetry(e, 3));
+    }
+
+    @Test
+    public void onlyListedTypesAreRetried() {
+        RetryPolicy policy = new RetryPolicy(3, 10, 1000).retryOn(IOException.class);
+
+        assertTrue(policy.shouldRetry(new FileNotFoundException(), 1));
+        assertFalse(policy.shouldRetry(new IllegalStateException(), 1));
+    }
+
+    @Test
+    public void backoffDoublesUpToMaxWithoutJitter() {
+        RetryPolicy policy = new RetryPolicy(10, 100, 500).jitter(0);
+
+        assertEquals(100, policy.backoffMillis(1));
+        assertEquals(200, policy.backoffMillis(2));
+        assertEquals(400, policy.backoffMillis(3));
+        assertEquals(500, policy.backoffMillis(4));
+        assertEquals(500, policy.backoffMillis(9));
+    }
+
+    @Test
+    public void jitterOnlyTakesTimeAway() {
+        RetryPolicy policy = new RetryPolicy(10, 100, 500).jitter(0.5);
+
+        for (int i = 0; i < 100; i++) {
+            long backoff = policy.backoffMillis(2);
+            assertTrue(backoff > 100 && backoff <= 200);
+        }
+    }
+}
@@ -0,0 +1,979 @@
+/*
+ * Copyright 2015 Matthew Lee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.mthli.sugartask;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * Behaviour of TaskEngine on plain JVM, the test thread is MainThread and drives QueueDispatcher,
+ * works run on a plain executor, so a test can wait until every WorkerThread is done.
+ *
+ * TaskEngine 在普通 JVM 中的行为，测试线程作为主线程并驱动 QueueDispatcher ，
+ * work 在一个普通的 executor 中执行，这样测试就可以等到所有的后台线程都结束。
+ */
+public class TaskEngineTest {
+    private QueueDispatcher dispatcher;
+
+    private ExecutorService executor;
+
+    private TaskEngine<Object> engine;
+
+    private Object owner;
+
+    private List<Object> resultList;
+
+    private TaskEngine.FinishListener recorder;
+
+    @Before
+    public void setup() {
+        dispatcher = new QueueDispatcher();
+        executor = Executors.newCachedThreadPool();
+        engine = new TaskEngine<>(dispatcher);
+        engine.setScheduler(new TaskEngine.Scheduler() {
+            @Override
+            public void schedule(Runnable runnable, int priority, int type) {
+                executor.execute(runnable);
+            }
+        });
+
+        owner = new Object();
+        resultList = new ArrayList<>();
+
+        recorder = new TaskEngine.FinishListener() {
+            @Override
+            public void onFinish(Object result) {
+                resultList.add(result);
+            }
+        };
+    }
+
+    @After
+    public void teardown() {
+        executor.shutdownNow();
+    }
+
+    @Test(timeout = 5000)
+    public void sameKeyRunsOnceForEveryCaller() throws Exception {
+        final AtomicInteger runs = new AtomicInteger();
+        final CountDownLatch gate = new CountDownLatch(1);
+
+        TaskEngine.TaskDescription description = new TaskEngine.TaskDescription() {
+            @Override
+            public Object onBackground() {
+                runs.incrementAndGet();
+                await(gate);
+                return "done";
+            }
+        };
+
+        engine.with(owner).assign(description).key("same").finish(recorder).execute();
+        engine.with(new Object()).assign(description).key("same").finish(recorder).execute();
+        gate.countDown();
+
+        runUntilSize(resultList, 2);
+        assertEquals(Arrays.<Object>asList("done", "done"), resultList);
+        assertEquals(1, runs.get());
+    }
+
+    @Test(timeout = 5000)
+    public void cancelledTaskNeverCallsBack() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch exited = new CountDownLatch(1);
+
+        TaskEngine<Object>.Handle handle = engine.with(owner).assign(new TaskEngine.TaskDescription() {
+            @Override
+            public Object onBackground() {
+                started.countDown();
+                while (!engine.isCancelled()) {
+                    Thread.yield();
+                }
+
+                exited.countDown();
+                return "late";
+            }
+        }).finish(recorder).execute();
+
+        started.await();
+        handle.cancel();
+        exited.await();
+        drain();
+
+        assertTrue(handle.isCancelled());
+        assertTrue(resultList.isEmpty());
+    }
+
+    @Test(timeout = 5000)
+    public void stoppedOwnerNeverCallsBack() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch exited = new CountDownLatch(1);
+
+        engine.with(owner).assign(new TaskEngine.TaskDescription() {
+            @Override
+            public Object onBackground() {
+                started.countDown();
+                while (!engine.isCancelled()) {
+                    Thread.yield();
+                }
+
+                exited.countDown();
+                return "late";
+            }
+        }).finish(recorder).execute();
+
+        started.await();
+        engine.stop(owner);
+        dispatcher.runPending();
+        exited.await();
+        drain();
+
+        assertTrue(resultList.isEmpty());
+    }
+
+    /*
+     * Every other helper starts late, after the batch or the split may already be done by the others.
+     *
+     * 每隔一个帮手就延迟启动，此时批处理或者拆分可能已经被其他帮手完成了。
+     */
+    @Test(timeout = 10000)
+    public void lateHelpersDontTouchFinishedWork() throws Exception {
+        final List<Throwable> errorList = new CopyOnWriteArrayList<>();
+        final ScheduledExecutorService delayed = Executors.newScheduledThreadPool(4);
+
+        engine.setScheduler(new TaskEngine.Scheduler() {
+            private int count = 0;
+
+            @Override
+            public void schedule(final Runnable runnable, int priority, int type) {
+                Runnable guarded = new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            runnable.run();
+                        } catch (Throwable t) {
+                            errorList.add(t);
+                        }
+                    }
+                };
+
+                delayed.schedule(guarded, count++ % 2 == 0 ? 0 : 100, TimeUnit.MILLISECONDS);
+            }
+        });
+
+        List<TaskEngine.TaskDescription> descriptionList = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            descriptionList.add(new TaskEngine.TaskDescription() {
+                @Override
+                public Object onBackground() {
+                    return 1;
+                }
+            });
+        }
+
+        List<Integer> input = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            input.add(i);
+        }
+
+        TaskEngine.Mapper mapper = new TaskEngine.Mapper() {
+            @Override
+            public Object map(List<?> chunk) {
+                return chunk.size();
+            }
+        };
+
+        TaskEngine.Reducer reducer = new TaskEngine.Reducer() {
+            @Override
+            public Object reduce(Object first, Object second) {
+                return (Integer) first + (Integer) second;
+            }
+        };
+
+        final List<Object[]> batchList = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            engine.with(owner).assignAll(descriptionList).parallelism(4).finishAll(new TaskEngine.BatchListener() {
+                @Override
+                public void onFinish(Object[] results, Exception[] exceptions) {
+                    batchList.add(results);
+                }
+            }).execute();
+
+            engine.with(owner).mapReduce(input, mapper, reducer).finish(recorder).execute();
+        }
+
+        runUntilSize(resultList, 5);
+        runUntilSize(batchList, 5);
+        drain(delayed);
+
+        assertTrue(errorList.toString(), errorList.isEmpty());
+        for (Object result : resultList) {
+            assertEquals(100, result);
+        }
+
+        for (Object[] results : batchList) {
+            assertEquals(Arrays.<Object>asList(1, 1, 1, 1), Arrays.asList(results));
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void coalescedMessagesKeepOnlyTheLatestOfEveryTask() throws Exception {
+        dispatcher = new QueueDispatcher() {
+            @Override
+            public void dispatchFrame(TaskEngine<?> engine) {
+                // Frames are flushed by the test.
+                // 帧由测试来处理。
+            }
+        };
+        engine = new TaskEngine<>(dispatcher);
+
+        final List<Object> messageList = new ArrayList<>();
+        TaskEngine.MessageListener<Object> listener = new TaskEngine.MessageListener<Object>() {
+            @Override
+            public void handleMessage(Object message) {
+                messageList.add(message);
+            }
+        };
+
+        final CountDownLatch posted = new CountDownLatch(2);
+        final CountDownLatch gate = new CountDownLatch(1);
+
+        for (final String name : Arrays.asList("a", "b")) {
+            engine.with(owner).assign(new TaskEngine.TaskDescription() {
+                @Override
+                public Object onBackground() {
+                    for (int i = 1; i <= 3; i++) {
+                        engine.post(name + i);
+                    }
+
+                    posted.countDown();
+                    await(gate);
+                    return null;
+                }
+            }).coalesce().handle(listener).execute();
+        }
+
+        posted.await();
+        engine.flushFrame();
+        gate.countDown();
+
+        assertEquals(2, messageList.size());
+        assertTrue(messageList.contains("a3"));
+        assertTrue(messageList.contains("b3"));
+    }
+
+    /*
+     * A foreground task promotes the running deferred task of the same key,
+     * the deferred run is never cut short, both callers get its full result.
+     *
+     * 前台任务会提升相同 key 的正在执行的延迟任务，
+     * 延迟任务不会被中途打断，两个调用者都会得到它完整的结果。
+     */
+    @Test(timeout = 5000)
+    public void foregroundTaskPromotesDeferredTaskOfSameKey() throws Exception {
+        final AtomicInteger runs = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch gate = new CountDownLatch(1);
+
+        TaskEngine.TaskDescription description = new TaskEngine.TaskDescription() {
+            @Override
+            public Object onBackground() {
+                runs.incrementAndGet();
+                started.countDown();
+                await(gate);
+                return engine.isCancelled() ? "partial" : "full";
+            }
+        };
+
+        engine.with(owner).assign(description).key("warm").defer().finish(recorder).execute();
+        dispatcher.runPending();
+        started.await();
+
+        engine.with(new Object()).assign(description).key("warm").finish(recorder).execute();
+        gate.countDown();
+
+        runUntilSize(resultList, 2);
+        assertEquals(Arrays.<Object>asList("full", "full"), resultList);
+        assertEquals(1, runs.get());
+    }
+
+    @Test(timeout = 5000)
+    public void releasableResultIsReleasedWhenCancelledAndNeverCached() throws Exception {
+        final AtomicInteger released = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch gate = new CountDownLatch(1);
+        final CountDownLatch exited = new CountDownLatch(1);
+
+        TaskEngine<Object>.Handle handle = engine.with(owner).assign(new TaskEngine.TaskDescription() {
+            @Override
+            public Object onBackground() {
+                started.countDown();
+                await(gate);
+                exited.countDown();
+                return new TaskEngine.Releasable() {
+                    @Override
+                    public void release() {
+                        released.incrementAndGet();
+                    }
+                };
+            }
+        }).key("buffer").cache(60000).finish(recorder).execute();
+
+        started.await();
+        handle.cancel();
+        gate.countDown();
+        exited.await();
+        drain();
+
+        assertEquals(1, released.get());
+        assertTrue(resultList.isEmpty());
+
+        final BufferPool.Buffer[] buffers = new BufferPool.Buffer[1];
+        engine.with(owner).assign(new TaskEngine.TaskDescription() {
+            @Override
+            public Object onBackground() {
+                buffers[0] = engine.getBufferPool().acquire(16);
+                return buffers[0];
+            }
+        }).key("buffer").cache(60000).finish(recorder).execute();
+
+        runUntilSize(resultList, 1);
+        assertTrue(resultList.get(0) == buffers[0]);
+        assertNull(engine.getCache().get("buffer"));
+    }
+
+    @Test(timeout = 5000)
+    public void releasableResultSharedByKeyGoesToTheFirstTaskOnly() throws Exception {
+        final CountDownLatch gate = new CountDownLatch(1);
+        final BufferPool.Buffer[] buffers = new BufferPool.Buffer[1];
+
+        TaskEngine.TaskDescription description = new TaskEngine.TaskDescription() {
+            @Override
+            public Object onBackground() {
+                await(gate);
+                buffers[0] = engine.getBufferPool().acquire(16);
+                return buffers[0];
+            }
+        };
+
+        final List<Exception> exceptionList = new ArrayList<>();
+        TaskEngine.BrokenListener listener = new TaskEngine.BrokenListener() {
+            @Override
+            public void onBroken(Exception e) {
+                exceptionList.add(e);
+            }
+        };
+
+        engine.with(owner).assign(description).key("buffer").finish(recorder).broken(listener).execute();
+        engine.with(new Object()).assign(description).key("buffer").finish(recorder).broken(listener).execute();
+        gate.countDown();
+
+        runUntilSize(exceptionList, 1);
+        assertEquals(1, resultList.size());
+        assertTrue(resultList.get(0) == buffers[0]);
+        assertTrue(exceptionList.get(0) instanceof IllegalStateException);
+    }
+
+    @Test(timeout = 5000)
+    public void cachedResultIsDeliveredWithoutRunningAgain() throws Exception {
+        final AtomicInteger runs = new AtomicInteger();
+
+        TaskEngine.TaskDescription description = new TaskEngine.TaskDescription() {
+            @Override
+            public Object onBackground() {
+                return "run" + runs.incrementAndGet();
+            }
+        };
+
+        engine.with(owner).assign(description).key("cached").cache(60000).finish(recorder).execute();
+        runUntilSize(resultList, 1);
+
+        engine.with(owner).assign(description).key("cached").cache(60000).finish(recorder).execute();
+        runUntilSize(resultList, 2);
+
+        assertEquals(Arrays.<Object>asList("run1", "run1"), resultList);
+        assertEquals(1, runs.get());
+        assertFalse(engine.getCache().get("cached") == null);
+    }
+
+    /*
+     * Every listener cancels its own task while the broadcast goes around,
+     * the rest of the owners still get the message exactly once.
+     *
+     * 每个监听者都会在广播的过程中取消自己的任务，
+     * 其余的宿主仍然恰好收到一次消息。
+     */
+    @Test(timeout = 5000)
+    public void listenerCanCancelItselfDuringBroadcast() throws Exception {
+        final CountDownLatch gate = new CountDownLatch(1);
+        final List<Object> messageList = new ArrayList<>();
+        final List<TaskEngine<Object>.Handle> handleList = new ArrayList<>();
+
+        for (int i = 0; i < 10; i++) {
+            final int index = i;
+            handleList.add(engine.with(new Object()).assign(new TaskEngine.TaskDescription() {
+                @Override
+                public Object onBackground() {
+                    await(gate);
+                    return null;
+                }
+            }).handle(new TaskEngine.MessageListener<Object>() {
+                @Override
+                public void handleMessage(Object message) {
+                    messageList.add(message);
+                    handleList.get(index).cancel();
+                }
+            }).finish(recorder).execute());
+        }
+
+        engine.broadcast("hello");
+        dispatcher.runPending();
+        gate.countDown();
+        drain();
+
+        assertEquals(10, messageList.size());
+        for (TaskEngine<Object>.Handle handle : handleList) {
+            assertTrue(handle.isCancelled());
+        }
+
+        assertTrue(resultList.isEmpty());
+    }
+
+    @Test(timeout = 5000)
+    public void stepsRunInOrderAndOnlyTheFinalResultComesBack() throws Exception {
+        engine.with(owner).assign(constant(2)).then(new TaskEngine.Continuation() {
+            @Override
+            public Object onBackground(Object previous) {
+                return (Integer) previous * 10;
+            }
+        }).zip(constant(3), new TaskEngine.Zipper() {
+            @Override
+            public Object zip(Object first, Object second) {
+                return (Integer) first + (Integer) second;
+            }
+        }).then(new TaskEngine.Continuation() {
+            @Override
+            public Object onBackground(Object previous) {
+                return "sum" + previous;
+            }
+        }).finish(recorder).execute();
+
+        runUntilSize(resultList, 1);
+        assertEquals(Arrays.<Object>asList("sum23"), resultList);
+    }
+
+    @Test(timeout = 5000)
+    public void allOfKeepsTheOrderOfSteps() throws Exception {
+        engine.with(owner).assign(constant("a")).allOf(constant("b"), constant("c")).then(new TaskEngine.Continuation() {
+            @Override
+            public Object onBackground(Object previous) {
+                return Arrays.asList((Object[]) previous);
+            }
+        }).finish(recorder).execute();
+
+        runUntilSize(resultList, 1);
+        assertEquals(Arrays.<Object>asList("a", "b", "c"), resultList.get(0));
+    }
+
+    @Test(timeout = 5000)
+    public void brokenStepSkipsTheRest() throws Exception {
+        final AtomicInteger later = new AtomicInteger();
+        final List<Exception> exceptionList = new ArrayList<>();
+
+        engine.with(owner).assign(constant(1)).then(new TaskEngine.Continuation() {
+            @Override
+            public Object onBackground(Object previous) {
+                throw new IllegalStateException("broken");
+            }
+        }).then(new TaskEngine.Continuation() {
+            @Override
+            public Object onBackground(Object previous) {
+                return later.incrementAndGet();
+            }
+        }).finish(recorder).broken(new TaskEngine.BrokenListener() {
+            @Override
+            public void onBroken(Exception e) {
+                exceptionList.add(e);
+            }
+        }).execute();
+
+        runUntilSize(exceptionList, 1);
+        assertEquals("broken", exceptionList.get(0).getMessage());
+        assertEquals(0, later.get());
+        assertTrue(resultList.isEmpty());
+    }
+
+    /*
+     * Every piece of a task is traced under its tag, or its key when it has no tag,
+     * and every ending of a task is reported once.
+     *
+     * 任务的每一个部分都以它的 tag 记录，没有 tag 时使用它的 key ，
+     * 并且任务的每一种结局都只报告一次。
+     */
+    @Test(timeout = 5000)
+    public void tracerSeesEveryRunAndEveryEnding() throws Exception {
+        final List<String> eventList = new CopyOnWriteArrayList<>();
+
+        engine.setTracer(new TaskEngine.Tracer() {
+            @Override
+            public void beginRun(String tag) {
+                eventList.add("begin " + tag);
+            }
+
+            @Override
+            public void endRun(String tag) {
+                eventList.add("end " + tag);
+            }
+
+            @Override
+            public void onDelivered(String tag, boolean broken, long queueNanos, long runNanos, long deliveryNanos) {
+                eventList.add((broken ? "broken " : "delivered ") + tag);
+                assertTrue(queueNanos >= 0 && runNanos >= 0 && deliveryNanos >= 0);
+            }
+
+            @Override
+            public void onCancelled(String tag) {
+                eventList.add("cancelled " + tag);
+            }
+
+            @Override
+            public void onDropped(String tag) {
+                eventList.add("dropped " + tag);
+            }
+        });
+
+        engine.with(owner).assign(constant("a")).tag("tagged").finish(recorder).execute();
+        runUntilSize(resultList, 1);
+        engine.with(owner).assign(constant("b")).key("keyed").finish(recorder).execute();
+        runUntilSize(resultList, 2);
+
+        final CountDownLatch gate = new CountDownLatch(1);
+        TaskEngine.TaskDescription blocked = new TaskEngine.TaskDescription() {
+            @Override
+            public Object onBackground() {
+                await(gate);
+                return null;
+            }
+        };
+
+        engine.with(owner).assign(blocked).tag("cancelled").execute().cancel();
+        Object stopped = new Object();
+        engine.with(stopped).assign(blocked).tag("dropped").execute();
+        engine.stop(stopped);
+        gate.countDown();
+        drain();
+
+        assertEquals(Arrays.asList("begin tagged", "end tagged", "delivered tagged",
+                "begin keyed", "end keyed", "delivered keyed"), eventList.subList(0, 6));
+        assertTrue(eventList.contains("cancelled cancelled"));
+        assertTrue(eventList.contains("dropped dropped"));
+    }
+
+    @Test(timeout = 5000)
+    public void itemsArriveInOrderBeforeTheResult() throws Exception {
+        final List<Object> eventList = new ArrayList<>();
+
+        engine.with(owner).assign(new TaskEngine.TaskDescription() {
+            @Override
+            public Object onBackground() {
+                for (int i = 0; i < 100; i++) {
+                    engine.emit(i);
+                }
+
+                return "done";
+            }
+        }).next(new TaskEngine.NextListener() {
+            @Override
+            public void onNext(Object item) {
+                eventList.add(item);
+            }
+        }, 2).finish(new TaskEngine.FinishListener() {
+            @Override
+            public void onFinish(Object result) {
+                eventList.add(result);
+            }
+        }).execute();
+
+        runUntilSize(eventList, 101);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, eventList.get(i));
+        }
+
+        assertEquals("done", eventList.get(100));
+    }
+
+    /*
+     * MainThread never drains the buffer, so the producer blocks until the task is cancelled.
+     *
+     * 主线程从不取空缓冲区，所以生产者会一直阻塞，直到任务被取消。
+     */
+    @Test(timeout = 5000)
+    public void emitBlocksWhenFullAndStopsWhenCancelled() throws Exception {
+        final AtomicInteger emitted = new AtomicInteger();
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch exited = new CountDownLatch(1);
+
+        TaskEngine<Object>.Handle handle = engine.with(owner).assign(new TaskEngine.TaskDescription() {
+            @Override
+            public Object onBackground() {
+                while (engine.emit(emitted.get())) {
+                    if (emitted.incrementAndGet() == 1) {
+                        blocked.countDown();
+                    }
+                }
+
+                exited.countDown();
+                return null;
+            }
+        }).next(new TaskEngine.NextListener() {
+            @Override
+            public void onNext(Object item) {
+                resultList.add(item);
+            }
+        }, 1).finish(recorder).execute();
+
+        blocked.await();
+        handle.cancel();
+        exited.await();
+        drain();
+
+        assertEquals(1, emitted.get());
+        assertTrue(resultList.isEmpty());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void emitOutsideAStreamingTaskThrows() {
+        engine.emit("item");
+    }
+
+    @Test(timeout = 5000)
+    public void failedTaskRunsAgainUntilItFinishes() throws Exception {
+        final AtomicInteger runs = new AtomicInteger();
+
+        engine.with(owner).assign(new TaskEngine.TaskDescription() {
+            @Override
+            public Object onBackground() {
+                if (runs.incrementAndGet() < 3) {
+                    throw new IllegalStateException("flaky");
+                }
+
+                return "done";
+            }
+        }).retry(new RetryPolicy(3, 1, 10)).finish(recorder).execute();
+
+        runUntilSize(resultList, 1);
+        assertEquals(Arrays.<Object>asList("done"), resultList);
+        assertEquals(3, runs.get());
+    }
+
+    @Test(timeout = 5000)
+    public void lastFailedAttemptBreaksTheTask() throws Exception {
+        final AtomicInteger runs = new AtomicInteger();
+        final List<Exception> exceptionList = new ArrayList<>();
+
+        engine.with(owner).assign(new TaskEngine.TaskDescription() {
+            @Override
+            public Object onBackground() {
+                throw new IllegalStateException("attempt " + runs.incrementAndGet());
+            }
+        }).retry(new RetryPolicy(2, 1, 10)).finish(recorder).broken(new TaskEngine.BrokenListener() {
+            @Override
+            public void onBroken(Exception e) {
+                exceptionList.add(e);
+            }
+        }).execute();
+
+        runUntilSize(exceptionList, 1);
+        assertEquals("attempt 2", exceptionList.get(0).getMessage());
+        assertEquals(2, runs.get());
+        assertTrue(resultList.isEmpty());
+    }
+
+    @Test(timeout = 5000)
+    public void groupRunsAtMostItsLimitAtOnce() throws Exception {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger peak = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(2);
+        final CountDownLatch gate = new CountDownLatch(1);
+
+        TaskEngine.TaskDescription description = new TaskEngine.TaskDescription() {
+            @Override
+            public Object onBackground() {
+                int now = running.incrementAndGet();
+                while (peak.get() < now && !peak.compareAndSet(peak.get(), now)) {
+                    Thread.yield();
+                }
+
+                started.countDown();
+                await(gate);
+                running.decrementAndGet();
+                return "decoded";
+            }
+        };
+
+        List<TaskEngine<Object>.Handle> handleList = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            handleList.add(engine.with(owner).assign(description).group("decode", 2).finish(recorder).execute());
+        }
+
+        assertEquals(2, engine.getGroupRunningCount("decode"));
+        assertEquals(3, engine.getGroupQueueSize("decode"));
+
+        handleList.get(4).cancel();
+        assertEquals(2, engine.getGroupQueueSize("decode"));
+
+        started.await();
+        gate.countDown();
+        runUntilSize(resultList, 4);
+        drain();
+
+        assertEquals(2, peak.get());
+        assertEquals(0, engine.getGroupRunningCount("decode"));
+        assertEquals(0, engine.getGroupQueueSize("decode"));
+    }
+
+    /*
+     * Every callback takes longer than the whole budget, so a frame delivers one result,
+     * the results which wait for later frames go out by priority.
+     * One worker finishes the tasks in order, so the first one is delivered first.
+     *
+     * 每个回调都比整个预算更耗时，所以一帧只会发送一个结果，
+     * 等待之后的帧的结果按照优先级发送。
+     * 由一个后台线程按顺序完成任务，所以第一个任务最先被发送。
+     */
+    @Test(timeout = 5000)
+    public void resultsOverTheBudgetWaitForLaterFramesByPriority() throws Exception {
+        dispatcher = new QueueDispatcher() {
+            @Override
+            public void dispatchFrame(TaskEngine<?> engine) {
+                // Frames are flushed by the test.
+                // 帧由测试来处理。
+            }
+        };
+
+        engine = new TaskEngine<>(dispatcher);
+        engine.setDeliveryBudget(1);
+        executor.shutdown();
+        executor = Executors.newSingleThreadExecutor();
+        engine.setScheduler(new TaskEngine.Scheduler() {
+            @Override
+            public void schedule(Runnable runnable, int priority, int type) {
+                executor.execute(runnable);
+            }
+        });
+
+        TaskEngine.FinishListener slow = new TaskEngine.FinishListener() {
+            @Override
+            public void onFinish(Object result) {
+                long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(3);
+                while (System.nanoTime() < end) {
+                    Thread.yield();
+                }
+
+                resultList.add(result);
+            }
+        };
+
+        engine.with(owner).assign(constant("first")).finish(slow).execute();
+        engine.with(owner).assign(constant("low")).priority(TaskEngine.PRIORITY_LOW).finish(slow).execute();
+        engine.with(owner).assign(constant("normal")).priority(TaskEngine.PRIORITY_NORMAL).finish(slow).execute();
+        engine.with(owner).assign(constant("high")).priority(TaskEngine.PRIORITY_HIGH).finish(slow).execute();
+        drain();
+
+        assertEquals(Arrays.<Object>asList("first"), resultList);
+        assertEquals(3, engine.getPostponedCount());
+
+        engine.flushFrame();
+        assertEquals(Arrays.<Object>asList("first", "high"), resultList);
+
+        engine.flushFrame();
+        engine.flushFrame();
+        assertEquals(Arrays.<Object>asList("first", "high", "normal", "low"), resultList);
+        assertEquals(4, engine.getOverBudgetCount());
+    }
+
+    @Test(timeout = 5000)
+    public void timeoutInterruptsARunningTask() throws Exception {
+        final List<Exception> exceptionList = new ArrayList<>();
+
+        engine.with(owner).assign(new TaskEngine.TaskDescription() {
+            @Override
+            public Object onBackground() {
+                while (!engine.isCancelled()) {
+                    Thread.yield();
+                }
+
+                return "late";
+            }
+        }).timeout(50).finish(recorder).broken(new TaskEngine.BrokenListener() {
+            @Override
+            public void onBroken(Exception e) {
+                exceptionList.add(e);
+            }
+        }).execute();
+
+        runUntilSize(exceptionList, 1);
+        assertTrue(resultList.isEmpty());
+
+        TaskTimeoutException e = (TaskTimeoutException) exceptionList.get(0);
+        assertTrue(e.isStarted());
+        assertEquals(50, e.getTimeoutMillis());
+    }
+
+    /*
+     * The scheduler holds the work back until the deadline is over, so it is skipped instead of started.
+     *
+     * 调度器一直扣住 work 直到截止时间过去，所以它会被跳过而不是开始执行。
+     */
+    @Test(timeout = 5000)
+    public void queuedTaskPastItsDeadlineNeverRuns() throws Exception {
+        final List<Runnable> runnableList = new ArrayList<>();
+        engine.setScheduler(new TaskEngine.Scheduler() {
+            @Override
+            public void schedule(Runnable runnable, int priority, int type) {
+                runnableList.add(runnable);
+            }
+        });
+
+        final AtomicInteger runs = new AtomicInteger();
+        final List<Exception> exceptionList = new ArrayList<>();
+
+        engine.with(owner).assign(new TaskEngine.TaskDescription() {
+            @Override
+            public Object onBackground() {
+                return runs.incrementAndGet();
+            }
+        }).deadline(System.currentTimeMillis() + 50).finish(recorder).broken(new TaskEngine.BrokenListener() {
+            @Override
+            public void onBroken(Exception e) {
+                exceptionList.add(e);
+            }
+        }).execute();
+
+        runUntilSize(exceptionList, 1);
+        assertFalse(((TaskTimeoutException) exceptionList.get(0)).isStarted());
+
+        for (Runnable runnable : runnableList) {
+            runnable.run();
+        }
+
+        dispatcher.runPending();
+        assertEquals(0, runs.get());
+        assertTrue(resultList.isEmpty());
+        assertEquals(1, exceptionList.size());
+    }
+
+    /*
+     * A deadline already passed, or a timeout of zero, times the task out before it can start.
+     *
+     * 已经过去的截止时间，或者为零的超时时间，会让任务在开始之前就超时。
+     */
+    @Test(timeout = 5000)
+    public void passedDeadlineAndZeroTimeoutNeverRun() throws Exception {
+        final AtomicInteger runs = new AtomicInteger();
+        final List<Exception> exceptionList = new ArrayList<>();
+
+        TaskEngine.TaskDescription description = new TaskEngine.TaskDescription() {
+            @Override
+            public Object onBackground() {
+                return runs.incrementAndGet();
+            }
+        };
+
+        TaskEngine.BrokenListener listener = new TaskEngine.BrokenListener() {
+            @Override
+            public void onBroken(Exception e) {
+                exceptionList.add(e);
+            }
+        };
+
+        engine.with(owner).assign(description).deadline(System.currentTimeMillis() - 1000).finish(recorder).broken(listener).execute();
+        engine.with(owner).assign(description).timeout(0).finish(recorder).broken(listener).execute();
+
+        runUntilSize(exceptionList, 2);
+        assertTrue(exceptionList.get(0) instanceof TaskTimeoutException);
+        assertTrue(exceptionList.get(1) instanceof TaskTimeoutException);
+        assertEquals(0, runs.get());
+        assertTrue(resultList.isEmpty());
+    }
+
+    private void runUntilSize(final List<?> list, final int size) throws InterruptedException {
+        dispatcher.runUntil(new QueueDispatcher.Condition() {
+            @Override
+            public boolean done() {
+                return list.size() >= size;
+            }
+        });
+    }
+
+    /*
+     * A fresh executor takes the work started after it.
+     *
+     * 之后启动的 work 由一个新的 executor 执行。
+     */
+    private void drain() throws InterruptedException {
+        ExecutorService old = executor;
+        executor = Executors.newCachedThreadPool();
+        drain(old);
+    }
+
+    /*
+     * Wait until every WorkerThread is done, delayed runnables included,
+     * so every message is already queued, then handle them.
+     *
+     * 等到所有的后台线程都结束，包括延迟执行的 runnable ，
+     * 这样所有的消息都已经入队，然后处理它们。
+     */
+    private void drain(ExecutorService service) throws InterruptedException {
+        service.shutdown();
+        assertTrue(service.awaitTermination(5, TimeUnit.SECONDS));
+        dispatcher.runPending();
+    }
+
+    private static TaskEngine.TaskDescription constant(final Object result) {
+        return new TaskEngine.TaskDescription() {
+            @Override
+            public Object onBackground() {
+                return result;
+            }
+        };
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
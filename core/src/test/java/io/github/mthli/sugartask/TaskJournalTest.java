@@ -0,0 +1,245 @@
+/*
+ * Copyright 2015 Matthew Lee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.mthli.sugartask;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * Recovery of TaskJournal from the file left by the last process, which may be torn or corrupted.
+ *
+ * TaskJournal 从上一个进程留下的文件中恢复，这个文件可能不完整或者已经损坏。
+ */
+public class TaskJournalTest {
+    static class Note implements TaskEngine.TaskDescription, Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private String text;
+
+        Note(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public Object onBackground() {
+            return text;
+        }
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setup() throws IOException {
+        file = new File(folder.getRoot(), "journal");
+    }
+
+    @Test(timeout = 5000)
+    public void recoversOnlyUnfinishedTasks() throws Exception {
+        writeJournal();
+
+        List<String> textList = recover(new TaskJournal(file), 1);
+        assertEquals(1, textList.size());
+        assertEquals("second", textList.get(0));
+    }
+
+    @Test(timeout = 5000)
+    public void tornRecordEndsTheLog() throws Exception {
+        writeJournal();
+        appendRaw(64, 0, new byte[10]);
+
+        List<String> textList = recover(new TaskJournal(file), 1);
+        assertEquals(1, textList.size());
+    }
+
+    @Test(timeout = 5000)
+    public void corruptedLengthEndsTheLog() throws Exception {
+        writeJournal();
+        appendRaw(Integer.MAX_VALUE, 0, new byte[16]);
+
+        List<String> textList = recover(new TaskJournal(file), 1);
+        assertEquals(1, textList.size());
+    }
+
+    @Test(timeout = 5000)
+    public void negativeLengthEndsTheLog() throws Exception {
+        appendRaw(-1, 0, new byte[16]);
+
+        List<String> textList = recover(new TaskJournal(file), 0);
+        assertTrue(textList.isEmpty());
+    }
+
+    /*
+     * A directory in the way of the compacted file makes the rewrite fail,
+     * the tasks read before the failure are still handed over, and the failure is reported.
+     *
+     * 压缩文件的位置上有一个目录，这会让重写失败，
+     * 失败之前读到的任务仍然会被交出，并且这个错误会被报告出来。
+     */
+    @Test(timeout = 5000)
+    public void failedCompactionStillRecoversAndReports() throws Exception {
+        writeJournal();
+        assertTrue(new File(file.getPath() + ".tmp").mkdir());
+
+        final List<String> textList = new CopyOnWriteArrayList<>();
+        final CountDownLatch recovered = new CountDownLatch(1);
+
+        TaskJournal journal = new TaskJournal(file);
+        assertNull(journal.getFailure());
+
+        journal.recover(new TaskJournal.Recovery() {
+            @Override
+            public void onRecover(List<TaskJournal.Record> recordList) {
+                for (TaskJournal.Record record : recordList) {
+                    textList.add((String) record.description.onBackground());
+                }
+
+                recovered.countDown();
+            }
+        });
+
+        recovered.await();
+        assertEquals(Arrays.asList("second"), textList);
+        assertNotNull(journal.getFailure());
+    }
+
+    /*
+     * A durable task which never gets a thread has ended too, so it's never replayed.
+     *
+     * 一个始终没有拿到线程的持久任务也已经结束了，所以它永远不会被重放。
+     */
+    @Test(timeout = 5000)
+    public void rejectedDurableTaskIsNotRecovered() throws Exception {
+        QueueDispatcher dispatcher = new QueueDispatcher();
+        TaskEngine<Object> engine = new TaskEngine<>(dispatcher);
+        engine.setScheduler(new TaskEngine.Scheduler() {
+            @Override
+            public void schedule(Runnable runnable, int priority, int type) {
+                throw new RejectedExecutionException();
+            }
+        });
+
+        TaskJournal journal = new TaskJournal(file);
+        engine.setJournal(journal);
+
+        final List<Exception> exceptionList = new ArrayList<>();
+        engine.with(new Object()).assign(new Note("rejected")).durable().broken(new TaskEngine.BrokenListener() {
+            @Override
+            public void onBroken(Exception e) {
+                exceptionList.add(e);
+            }
+        }).execute();
+
+        dispatcher.runUntil(new QueueDispatcher.Condition() {
+            @Override
+            public boolean done() {
+                return !exceptionList.isEmpty();
+            }
+        });
+
+        assertTrue(exceptionList.get(0) instanceof RejectedExecutionException);
+
+        journal.append(new Note("marker"));
+        awaitLiveCount(journal, 1);
+
+        assertEquals(Arrays.asList("marker"), recover(new TaskJournal(file), 1));
+    }
+
+    /*
+     * ADD first, ADD second, DONE first, every step waits until it's on disk.
+     *
+     * ADD first 、 ADD second 、 DONE first ，每一步都会等到它写入磁盘。
+     */
+    private void writeJournal() throws Exception {
+        TaskJournal journal = new TaskJournal(file);
+
+        long first = journal.append(new Note("first"));
+        awaitLiveCount(journal, 1);
+
+        journal.append(new Note("second"));
+        awaitLiveCount(journal, 2);
+
+        journal.complete(first);
+        awaitLiveCount(journal, 1);
+    }
+
+    private void appendRaw(int length, int crc, byte[] payload) throws IOException {
+        DataOutputStream output = new DataOutputStream(new FileOutputStream(file, true));
+
+        try {
+            output.writeInt(length);
+            output.writeInt(crc);
+            output.write(payload);
+        } finally {
+            output.close();
+        }
+    }
+
+    /*
+     * The journal thread handles one thing at a time, recovery always runs before the next record,
+     * so the recovered tasks are final once that record is counted,
+     * and the journal is still usable after reading a broken file.
+     *
+     * 日志线程一次只处理一件事，恢复总是在下一条记录之前执行，
+     * 所以当那条记录被计入之后，恢复的任务就确定了，
+     * 同时也说明读取损坏的文件之后日志仍然可用。
+     */
+    private static List<String> recover(TaskJournal journal, int liveCount) throws Exception {
+        final List<String> textList = new CopyOnWriteArrayList<>();
+
+        journal.recover(new TaskJournal.Recovery() {
+            @Override
+            public void onRecover(List<TaskJournal.Record> recordList) {
+                for (TaskJournal.Record record : recordList) {
+                    textList.add((String) record.description.onBackground());
+                }
+            }
+        });
+
+        journal.append(new Note("third"));
+        awaitLiveCount(journal, liveCount + 1);
+
+        return textList;
+    }
+
+    private static void awaitLiveCount(TaskJournal journal, int liveCount) throws InterruptedException {
+        while (journal.getLiveCount() != liveCount) {
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2015 Matthew Lee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.mthli.sugartask;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * Events are fed to TaskMetrics by hand, so every count and histogram is known in advance.
+ *
+ * 事件由测试直接交给 TaskMetrics ，所以每个计数和直方图都是预先知道的。
+ */
+public class TaskMetricsTest {
+    @Test
+    public void countsGoToTotalAndTag() {
+        TaskMetrics metrics = new TaskMetrics();
+        metrics.onDelivered("load", false, 10, 100, 1000);
+        metrics.onDelivered("load", true, 10, 100, 1000);
+        metrics.onDelivered(null, false, 10, 100, 1000);
+        metrics.onCancelled("load");
+        metrics.onDropped("save");
+
+        Map<String, TaskMetrics.Stats> statsMap = export(metrics);
+        assertEquals(Arrays.asList("total", "load", "save"), new ArrayList<>(statsMap.keySet()));
+
+        TaskMetrics.Stats total = statsMap.get("total");
+        assertEquals(2, total.getFinishedCount());
+        assertEquals(1, total.getBrokenCount());
+        assertEquals(1, total.getCancelledCount());
+        assertEquals(1, total.getDroppedCount());
+        assertEquals(3, total.getRun().getCount());
+
+        TaskMetrics.Stats load = statsMap.get("load");
+        assertEquals(1, load.getFinishedCount());
+        assertEquals(1, load.getBrokenCount());
+        assertEquals(1, load.getCancelledCount());
+        assertEquals(0, load.getDroppedCount());
+    }
+
+    /*
+     * Tags beyond maxTags only count in total.
+     *
+     * 超过 maxTags 的 tag 只计入总计。
+     */
+    @Test
+    public void tagsBeyondMaxOnlyCountInTotal() {
+        TaskMetrics metrics = new TaskMetrics(1);
+        metrics.onDelivered("first", false, 0, 0, 0);
+        metrics.onDelivered("second", false, 0, 0, 0);
+
+        Map<String, TaskMetrics.Stats> statsMap = export(metrics);
+        assertEquals(Arrays.asList("total", "first"), new ArrayList<>(statsMap.keySet()));
+        assertEquals(2, statsMap.get("total").getFinishedCount());
+    }
+
+    /*
+     * A phase which never happened is -1 and is not recorded,
+     * percentiles are the upper bound of their log2 bucket, but never above max.
+     *
+     * 没有发生的阶段为 -1 ，不会被记录，
+     * 百分位数是它所在 log2 分桶的上界，但永远不会超过最大值。
+     */
+    @Test
+    public void histogramSkipsMissingPhasesAndBoundsPercentiles() {
+        TaskMetrics metrics = new TaskMetrics();
+        metrics.onDelivered(null, true, -1, -1, 5);
+        for (long nanos : new long[]{100, 200, 300, 1000}) {
+            metrics.onDelivered(null, false, nanos, nanos, nanos);
+        }
+
+        TaskMetrics.Histogram run = export(metrics).get("total").getRun();
+        assertEquals(4, run.getCount());
+        assertEquals(400, run.getMeanNanos());
+        assertEquals(1000, run.getMaxNanos());
+        assertEquals(127, run.getPercentileNanos(0.25));
+        assertEquals(511, run.getPercentileNanos(0.75));
+        assertEquals(1000, run.getPercentileNanos(1));
+
+        assertEquals(5, export(metrics).get("total").getDelivery().getCount());
+    }
+
+    @Test
+    public void exportIsACopyAndResetStartsOver() {
+        TaskMetrics metrics = new TaskMetrics();
+        metrics.onDelivered("load", false, 0, 0, 0);
+
+        TaskMetrics.Stats before = export(metrics).get("total");
+        metrics.onDelivered("load", false, 0, 0, 0);
+        assertEquals(1, before.getFinishedCount());
+
+        metrics.reset();
+        Map<String, TaskMetrics.Stats> statsMap = export(metrics);
+        assertEquals(0, statsMap.get("total").getFinishedCount());
+        assertTrue(!statsMap.containsKey("load"));
+    }
+
+    private static Map<String, TaskMetrics.Stats> export(TaskMetrics metrics) {
+        final Map<String, TaskMetrics.Stats> statsMap = new LinkedHashMap<>();
+        metrics.export(new TaskMetrics.Exporter() {
+            @Override
+            public void export(String tag, TaskMetrics.Stats stats) {
+                statsMap.put(tag != null ? tag : "total", stats);
+            }
+        });
+
+        return statsMap;
+    }
+}
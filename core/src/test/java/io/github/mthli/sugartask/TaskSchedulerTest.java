@@ -0,0 +1,140 @@
+/*
+ * Copyright 2015 Matthew Lee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.mthli.sugartask;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * One thread and a tiny queue, so the order of the queue and the rejection are easy to see.
+ *
+ * 一个线程和一个很小的队列，这样队列的顺序和拒绝行为都很容易观察。
+ */
+public class TaskSchedulerTest {
+    @Test(timeout = 5000)
+    public void higherPriorityRunsFirstAndSamePriorityInOrder() throws Exception {
+        TaskScheduler scheduler = new TaskScheduler(1, 1, 8);
+        final CountDownLatch gate = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(4);
+        final List<String> nameList = new CopyOnWriteArrayList<>();
+
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                await(gate);
+            }
+        }, TaskEngine.PRIORITY_NORMAL, TaskEngine.TYPE_CPU);
+
+        String[] names = {"low", "normal1", "high", "normal2"};
+        int[] priorities = {TaskEngine.PRIORITY_LOW, TaskEngine.PRIORITY_NORMAL, TaskEngine.PRIORITY_HIGH, TaskEngine.PRIORITY_NORMAL};
+        for (int i = 0; i < names.length; i++) {
+            final String name = names[i];
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    nameList.add(name);
+                    done.countDown();
+                }
+            }, priorities[i], TaskEngine.TYPE_CPU);
+        }
+
+        assertEquals(4, scheduler.getQueueSize(TaskEngine.TYPE_CPU));
+        gate.countDown();
+        done.await();
+
+        assertEquals(Arrays.asList("high", "normal1", "normal2", "low"), nameList);
+    }
+
+    /*
+     * The first task holds the only thread, the second fills the queue, the third is broken at once.
+     *
+     * 第一个任务占用唯一的线程，第二个任务填满队列，第三个任务立刻失败。
+     */
+    @Test(timeout = 5000)
+    public void fullQueueBreaksTheTask() throws Exception {
+        QueueDispatcher dispatcher = new QueueDispatcher();
+        final TaskEngine<Object> engine = new TaskEngine<>(dispatcher);
+        engine.setScheduler(new TaskScheduler(1, 1, 1));
+
+        final CountDownLatch gate = new CountDownLatch(1);
+        TaskEngine.TaskDescription description = new TaskEngine.TaskDescription() {
+            @Override
+            public Object onBackground() {
+                await(gate);
+                return "done";
+            }
+        };
+
+        final List<Object> resultList = new ArrayList<>();
+        TaskEngine.FinishListener finishListener = new TaskEngine.FinishListener() {
+            @Override
+            public void onFinish(Object result) {
+                resultList.add(result);
+            }
+        };
+
+        final List<Exception> exceptionList = new ArrayList<>();
+        TaskEngine.BrokenListener brokenListener = new TaskEngine.BrokenListener() {
+            @Override
+            public void onBroken(Exception e) {
+                exceptionList.add(e);
+            }
+        };
+
+        Object owner = new Object();
+        for (int i = 0; i < 3; i++) {
+            engine.with(owner).assign(description).finish(finishListener).broken(brokenListener).execute();
+        }
+
+        dispatcher.runUntil(new QueueDispatcher.Condition() {
+            @Override
+            public boolean done() {
+                return !exceptionList.isEmpty();
+            }
+        });
+
+        assertTrue(exceptionList.get(0) instanceof RejectedExecutionException);
+        gate.countDown();
+
+        dispatcher.runUntil(new QueueDispatcher.Condition() {
+            @Override
+            public boolean done() {
+                return resultList.size() >= 2;
+            }
+        });
+
+        assertEquals(Arrays.<Object>asList("done", "done"), resultList);
+        assertEquals(1, exceptionList.size());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -21,22 +21,34 @@ import android.app.Activity;
 import android.app.Fragment;
 import android.app.FragmentManager;
 import android.os.Build;
+import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.os.MessageQueue;
 import android.os.Process;
 import android.support.annotation.MainThread;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.annotation.WorkerThread;
 import android.support.v4.app.FragmentActivity;
+import android.view.Choreographer;
 
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.WeakHashMap;
 
+/*
+ * Android binding of TaskEngine:
+ * the main Looper is its Dispatcher, hook fragments follow the lifecycle of owners,
+ * and android.os.Message is the progress message.
+ *
+ * TaskEngine 的 Android 绑定：
+ * 主线程 Looper 作为它的 Dispatcher ， hook fragment 跟随宿主的生命周期，
+ * android.os.Message 作为进度消息。
+ */
 public class SugarTask {
     /*
      * WorkerThread interface,
@@ -45,7 +57,7 @@ public class SugarTask {
      * 后台线程接口，
      * 通过实现这个接口，添加你想要的功能。
      */
-    public interface TaskDescription {
+    public interface TaskDescription extends TaskEngine.TaskDescription {
         Object onBackground();
     }
 
@@ -57,7 +69,7 @@ public class SugarTask {
      * 主线程接口，
      * 用于接收处理来自后台线程的消息，可用于更新 UI 。
      */
-    public interface MessageListener {
+    public interface MessageListener extends TaskEngine.MessageListener<Message> {
         void handleMessage(@NonNull Message message);
     }
 
@@ -71,7 +83,7 @@ public class SugarTask {
      * 当后台线程正常结束运行，且当前上下文环境处于安全的生命周期中，
      * 这个接口中的方法将会被调用。
      */
-    public interface FinishListener {
+    public interface FinishListener extends TaskEngine.FinishListener {
         void onFinish(@Nullable Object result);
     }
 
@@ -85,93 +97,99 @@ public class SugarTask {
      * 当后台线程因为异常结束运行，且当前上下文环境处于安全的生命周期中，
      * 这个接口中的方法将会被调用。
      */
-    public interface BrokenListener {
+    public interface BrokenListener extends TaskEngine.BrokenListener {
         void onBroken(@NonNull Exception e);
     }
 
-    public class Register {
-        private Integer id;
-
-        private Register(@NonNull Integer id) {
-            this.id = id;
-        }
-
-        /*
-         * Must.
-         *
-         * 必须。
-         */
-        @MainThread
-        public SugarTask.Builder assign(@NonNull TaskDescription description) {
-            taskMap.put(id, description);
-
-            return new Builder(id);
-        }
+    /*
+     * MainThread interface,
+     * used by next(), receive the items emitted by SugarTask.emit() in order, while the task is still running.
+     *
+     * 主线程接口，
+     * 用于 next() ，在任务仍在执行时，按顺序接收通过 SugarTask.emit() 发出的数据。
+     */
+    public interface NextListener extends TaskEngine.NextListener {
+        void onNext(@Nullable Object item);
     }
 
-    public class Builder {
-        private Integer id;
-
-        private Builder(@NonNull Integer id) {
-            this.id = id;
-        }
-
-        /*
-         * Optional.
-         *
-         * 可选。
-         */
-        @MainThread
-        public SugarTask.Builder handle(@NonNull MessageListener listener) {
-            messageMap.put(id, listener);
-
-            return this;
-        }
-
-        /*
-         * Optional.
-         *
-         * 可选。
-         */
-        @MainThread
-        public SugarTask.Builder finish(@NonNull FinishListener listener) {
-            finishMap.put(id, listener);
-
-            return this;
-        }
+    /*
+     * MainThread interface,
+     * used by assignAll(), receive the results of the whole batch in one callback,
+     * results[i] and exceptions[i] belong to the i-th description, one of them is null.
+     *
+     * 主线程接口，
+     * 用于 assignAll() ，在一次回调中接收整个批次的结果，
+     * results[i] 和 exceptions[i] 属于第 i 个任务描述，两者之一为 null 。
+     */
+    public interface BatchListener extends TaskEngine.BatchListener {
+        void onFinish(@NonNull Object[] results, @NonNull Exception[] exceptions);
+    }
 
-        /*
-         * Optional.
-         *
-         * 可选。
-         */
-        @MainThread
-        public SugarTask.Builder broken(@NonNull BrokenListener listener) {
-            brokenMap.put(id, listener);
+    /*
+     * WorkerThread interface,
+     * when progress is coalesced, merge the pending message and the newer one into one message.
+     *
+     * 后台线程接口，
+     * 当进度消息被合并时，将尚未发送的消息和新的消息合并为一个消息。
+     */
+    public interface Combiner extends TaskEngine.Combiner<Message> {
+        @NonNull
+        Message combine(@NonNull Message older, @NonNull Message newer);
+    }
 
-            return this;
-        }
+    /*
+     * WorkerThread interface,
+     * used by then(), receive the result of previous step on the same WorkerThread.
+     *
+     * 后台线程接口，
+     * 用于 then() ，在同一个后台线程中接收上一步的结果。
+     */
+    public interface Continuation extends TaskEngine.Continuation {
+        Object onBackground(@Nullable Object previous);
+    }
 
-        /*
-         * Must.
-         *
-         * 必须。
-         */
-        @MainThread
-        public void execute() {
-            executor.execute(buildRunnable(id));
-        }
+    /*
+     * WorkerThread interface,
+     * used by zip(), combine the results of two tasks which run in parallel.
+     *
+     * 后台线程接口，
+     * 用于 zip() ，合并两个并行执行的任务的结果。
+     */
+    public interface Zipper extends TaskEngine.Zipper {
+        Object zip(@Nullable Object first, @Nullable Object second);
     }
 
-    private class Holder {
-        private Integer id;
+    /*
+     * WorkerThread interface,
+     * used by mapReduce(), turn one chunk of the input into a partial result.
+     *
+     * 后台线程接口，
+     * 用于 mapReduce() ，将输入中的一块转换为部分结果。
+     */
+    public interface Mapper extends TaskEngine.Mapper {
+        Object map(@NonNull List<?> chunk);
+    }
 
-        private Object object;
+    /*
+     * WorkerThread interface,
+     * used by mapReduce(), combine two partial results in the order of their chunks.
+     *
+     * 后台线程接口，
+     * 用于 mapReduce() ，按照块的顺序合并两个部分结果。
+     */
+    public interface Reducer extends TaskEngine.Reducer {
+        Object reduce(@Nullable Object first, @Nullable Object second);
+    }
 
-        private Holder(@NonNull Integer id, @Nullable Object object) {
-            this.id = id;
-            this.object = object;
-        }
+    /*
+     * Decide where and when a task runs,
+     * use SugarTask.setScheduler() to replace the default TaskScheduler.
+     *
+     * 决定任务在哪里以及何时执行，
+     * 使用 SugarTask.setScheduler() 替换默认的 TaskScheduler 。
+     */
+    public interface Scheduler extends TaskEngine.Scheduler {
+        void schedule(@NonNull Runnable runnable, int priority, int type);
     }
 
     /*
@@ -181,21 +199,54 @@ public class SugarTask {
      * 当你在后台线程中发送消息的时候，
      * 你的 message.what 不应该和 MESSAGE_* 相等。
      */
-    public static final int MESSAGE_FINISH = 0x65530;
+    public static final int MESSAGE_FINISH = TaskEngine.MESSAGE_FINISH;
 
-    public static final int MESSAGE_BROKEN = 0x65531;
+    public static final int MESSAGE_BROKEN = TaskEngine.MESSAGE_BROKEN;
 
-    public static final int MESSAGE_STOP = 0x65532;
+    public static final int MESSAGE_STOP = TaskEngine.MESSAGE_STOP;
+
+    public static final int MESSAGE_PROGRESS = TaskEngine.MESSAGE_PROGRESS;
 
     public static final String TAG_HOOK = "HOOK";
 
-    private static final Integer ID_ACTIVITY = 0x65533;
+    public static final int PRIORITY_HIGH = TaskEngine.PRIORITY_HIGH;
+
+    public static final int PRIORITY_NORMAL = TaskEngine.PRIORITY_NORMAL;
+
+    public static final int PRIORITY_LOW = TaskEngine.PRIORITY_LOW;
+
+    public static final int TYPE_CPU = TaskEngine.TYPE_CPU;
+
+    public static final int TYPE_IO = TaskEngine.TYPE_IO;
+
+    private static final long FRAME_INTERVAL = 16;
 
-    private static final Integer ID_FRAGMENT_ACTIVITY = 0x65534;
+    private static final int ID_ACTIVITY = 0x65533;
 
-    private static final Integer ID_FRAGMENT = 0x65535;
+    private static final int ID_FRAGMENT_ACTIVITY = 0x65534;
+
+    private static final int ID_FRAGMENT = 0x65535;
+
+    private static final int ID_SUPPORT_FRAGMENT = 0x65536;
+
+    /*
+     * Hooks by owner, one map per hook type, only touched on MainThread.
+     * A hook stays attached while its owner is alive and is forgotten in onDetach(),
+     * so starting a task usually costs one lookup,
+     * the FragmentManager is only asked the first time, or for the new owner of a retained hook.
+     * Owners are weak keys, so a hook which never gets attached doesn't keep its owner alive,
+     * Activity and Fragment never override equals(), so the lookup is still by reference.
+     *
+     * 按照宿主保存的 hook ，每种 hook 使用一个单独的 map ，只在主线程中访问。
+     * hook 在宿主存活期间一直保持添加状态，并且在 onDetach() 中被忘记，
+     * 所以启动任务通常只需要一次查找，
+     * 只有第一次，或者为被保留的 hook 寻找新的宿主时，才会询问 FragmentManager 。
+     * 宿主是弱引用的 key ，所以一个始终没有被添加的 hook 不会让它的宿主无法回收，
+     * Activity 和 Fragment 从不重写 equals() ，所以查找仍然是按引用进行的。
+     */
+    private static Map<Object, HookFragment> hookMap = new WeakHashMap<>();
 
-    private static final Integer ID_SUPPORT_FRAGMENT = 0x65536;
+    private static Map<Object, HookSupportFragment> supportHookMap = new WeakHashMap<>();
 
     /*
      * So how to get context lifecycle state real-time?
@@ -209,32 +260,183 @@ public class SugarTask {
      * 所以我们就可以通过它拿到当前上下文环境的生命周期啦。
      */
     public static class HookFragment extends Fragment {
-        protected boolean postEnable = true;
+        private TaskEngine<Message>.Scope scope;
+
+        /*
+         * Only used by the hook of Activity, which is the only retained one,
+         * scopes of nested fragments wait here for their recreated owners, keyed by pathOf().
+         *
+         * 只被 Activity 的 hook 使用，它是唯一被保留的 hook ，
+         * 嵌套 fragment 的 scope 在这里等待它们被重建的宿主，使用 pathOf() 作为 key 。
+         */
+        private Map<String, TaskEngine<Message>.Scope> parkedMap = new HashMap<>();
+
+        /*
+         * Retained nested fragments crash some versions of the platform and support library,
+         * so a nested hook is never retained, it parks its scope in the hook of Activity instead.
+         *
+         * 被保留的嵌套 fragment 会让某些版本的系统和 support 库崩溃，
+         * 所以嵌套的 hook 永远不会被保留，它会将 scope 停放在 Activity 的 hook 中。
+         */
+        @Override
+        public void onCreate(Bundle savedInstanceState) {
+            super.onCreate(savedInstanceState);
+
+            if (!isNested()) {
+                setRetainInstance(true);
+            }
+        }
+
+        @Override
+        public void onStart() {
+            super.onStart();
+
+            if (scope == null && isNested()) {
+                scope = takeParkedScope(getParentFragment());
+            }
+
+            if (scope != null && scope.isParked()) {
+                getEngine().rebindScope(scope, getOwner());
+            }
+        }
 
         @Override
         public void onStop() {
             super.onStop();
 
-            if (postEnable) {
-                Message message = new Message();
-                message.what = MESSAGE_STOP;
-                post(message);
+            if (getActivity() != null && getActivity().isChangingConfigurations()) {
+                getEngine().parkScope(getOwner());
+
+                if (isNested() && scope != null && scope.isParked()) {
+                    putParkedScope(getParentFragment(), scope);
+                    scope = null;
+                }
+            } else {
+                getEngine().stop(getOwner());
+            }
+        }
+
+        @Override
+        public void onDestroy() {
+            super.onDestroy();
+
+            if (getActivity() != null && getActivity().isChangingConfigurations()) {
+                return;
+            }
+
+            if (scope != null) {
+                getEngine().discardScope(scope);
+            }
+
+            for (TaskEngine<Message>.Scope parked : parkedMap.values()) {
+                getEngine().discardScope(parked);
+            }
+
+            parkedMap.clear();
+        }
+
+        @Override
+        public void onDetach() {
+            super.onDetach();
+
+            forgetHook(hookMap, this);
+        }
+
+        private boolean isNested() {
+            return Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1 && getParentFragment() != null;
+        }
+
+        /*
+         * Hook fragment of Activity is retained across configuration changes,
+         * so we find its current owner from the hierarchy instead of keeping a reference.
+         *
+         * Activity 的 hook fragment 在配置变化时会被保留，
+         * 所以我们从层级关系中查找它当前的宿主，而不是保存一个引用。
+         */
+        private Object getOwner() {
+            if (isNested()) {
+                return getParentFragment();
             }
+
+            return getActivity();
         }
     }
 
     public static class HookSupportFragment extends android.support.v4.app.Fragment {
-        protected boolean postEnable = true;
+        private TaskEngine<Message>.Scope scope;
+
+        private Map<String, TaskEngine<Message>.Scope> parkedMap = new HashMap<>();
+
+        @Override
+        public void onCreate(Bundle savedInstanceState) {
+            super.onCreate(savedInstanceState);
+
+            if (getParentFragment() == null) {
+                setRetainInstance(true);
+            }
+        }
+
+        @Override
+        public void onStart() {
+            super.onStart();
+
+            if (scope == null && getParentFragment() != null) {
+                scope = takeParkedScope(getParentFragment());
+            }
+
+            if (scope != null && scope.isParked()) {
+                getEngine().rebindScope(scope, getOwner());
+            }
+        }
 
         @Override
         public void onStop() {
             super.onStop();
 
-            if (postEnable) {
-                Message message = new Message();
-                message.what = MESSAGE_STOP;
-                post(message);
+            if (getActivity() != null && getActivity().isChangingConfigurations()) {
+                getEngine().parkScope(getOwner());
+
+                if (getParentFragment() != null && scope != null && scope.isParked()) {
+                    putParkedScope(getParentFragment(), scope);
+                    scope = null;
+                }
+            } else {
+                getEngine().stop(getOwner());
+            }
+        }
+
+        @Override
+        public void onDestroy() {
+            super.onDestroy();
+
+            if (getActivity() != null && getActivity().isChangingConfigurations()) {
+                return;
+            }
+
+            if (scope != null) {
+                getEngine().discardScope(scope);
             }
+
+            for (TaskEngine<Message>.Scope parked : parkedMap.values()) {
+                getEngine().discardScope(parked);
+            }
+
+            parkedMap.clear();
+        }
+
+        private Object getOwner() {
+            if (getParentFragment() != null) {
+                return getParentFragment();
+            }
+
+            return getActivity();
+        }
+
+        @Override
+        public void onDetach() {
+            super.onDetach();
+
+            forgetHook(supportHookMap, this);
         }
     }
 
@@ -246,293 +448,514 @@ public class SugarTask {
      * SugarTask.with().assign().handle().finish().broken().execute();
      */
     @MainThread
-    public static Register with(@NonNull Activity activity) {
-        getInstance().registerHookToContext(activity);
+    public static TaskEngine<Message>.Register with(@NonNull Activity activity) {
+        HookFragment hook = registerHookToContext(activity);
+        hook.scope = getEngine().obtainScope(ID_ACTIVITY, activity, hook.scope);
 
-        return getInstance().buildRegister(activity);
+        return getEngine().register(hook.scope);
     }
 
     @MainThread
-    public static Register with(@NonNull FragmentActivity activity) {
-        getInstance().registerHookToContext(activity);
+    public static TaskEngine<Message>.Register with(@NonNull FragmentActivity activity) {
+        HookSupportFragment hook = registerHookToContext(activity);
+        hook.scope = getEngine().obtainScope(ID_FRAGMENT_ACTIVITY, activity, hook.scope);
 
-        return getInstance().buildRegister(activity);
+        return getEngine().register(hook.scope);
     }
 
     @MainThread
-    public static Register with(@NonNull Fragment fragment) {
-        getInstance().registerHookToContext(fragment);
+    public static TaskEngine<Message>.Register with(@NonNull Fragment fragment) {
+        HookFragment hook = registerHookToContext(fragment);
+        if (hook.scope == null) {
+            hook.scope = takeParkedScope(fragment);
+        }
+
+        hook.scope = getEngine().obtainScope(ID_FRAGMENT, fragment, hook.scope);
 
-        return getInstance().buildRegister(fragment);
+        return getEngine().register(hook.scope);
     }
 
     @MainThread
-    public static Register with(@NonNull android.support.v4.app.Fragment fragment) {
-        getInstance().registerHookToContext(fragment);
+    public static TaskEngine<Message>.Register with(@NonNull android.support.v4.app.Fragment fragment) {
+        HookSupportFragment hook = registerHookToContext(fragment);
+        if (hook.scope == null) {
+            hook.scope = takeParkedScope(fragment);
+        }
 
-        return getInstance().buildRegister(fragment);
+        hook.scope = getEngine().obtainScope(ID_SUPPORT_FRAGMENT, fragment, hook.scope);
+
+        return getEngine().register(hook.scope);
     }
 
     /*
      * Post message from WorkerThread to MainThread:
      * SugarTask.post(YOUR MESSAGE);
      *
+     * Called in onBackground(), the message only goes to the MessageListener of the posting task,
+     * the carrier message holds the task, so MainThread never looks for listeners.
+     * Called outside of a task, there is no task to target, so the message will be broadcast.
+     *
      * 使用这个方法，在后台线程中向主线程发送消息：
      * SugarTask.post(YOUR MESSAGE);
+     *
+     * 在 onBackground() 中调用时，消息只会发送给当前任务的 MessageListener ，
+     * 承载消息的 message 持有这个任务，所以主线程不需要查找监听者。
+     * 在任务之外调用时，没有可以指定的任务，所以消息会被广播。
      */
     @WorkerThread
     public static void post(@NonNull Message message) {
-        getInstance().handler.sendMessage(message);
+        getEngine().post(message);
     }
 
-    private static class SugarTaskHolder {
-        public static final SugarTask INSTANCE = new SugarTask();
+    /*
+     * Emit item from onBackground() of a task with next(), it is delivered to NextListener on MainThread.
+     * Block while the buffer is full, return false when the task is cancelled or its context stops,
+     * the producer should stop and return then.
+     *
+     * 在拥有 next() 的任务的 onBackground() 中发出数据，它会在主线程中被发送给 NextListener 。
+     * 缓冲区满时阻塞，当任务被取消或者上下文环境停止时返回 false ，
+     * 此时生产者应该停止并返回。
+     */
+    @WorkerThread
+    public static boolean emit(@Nullable Object item) {
+        return getEngine().emit(item);
     }
 
-    private static SugarTask getInstance() {
-        return SugarTaskHolder.INSTANCE;
+    /*
+     * Post message from WorkerThread to every MessageListener of every context,
+     * only use it when all listeners really need the message.
+     *
+     * 从后台线程向所有上下文环境的所有 MessageListener 发送消息，
+     * 只有当所有的监听者都确实需要这个消息时才使用它。
+     */
+    @WorkerThread
+    public static void broadcast(@NonNull Message message) {
+        getEngine().broadcast(message);
     }
 
     /*
-     * Every thread has an unique id, so we can manage thread easily.
+     * Check it in long loops of onBackground(), return as soon as possible when it is true.
      *
-     * 每个执行的线程都有一个唯一的 id ，通过这个 id 我们可以很方便地管理线程。
+     * 在 onBackground() 的耗时循环中检查它，当它为 true 时尽快返回。
      */
-    private static AtomicInteger count = new AtomicInteger(0);
+    @WorkerThread
+    public static boolean isCancelled() {
+        return getEngine().isCancelled();
+    }
 
     /*
-     * Hold current context(Activity/FragmentActivity(v4)/Fragment/Fragment(v4),
-     * when context lifecycle stop, remember use resetHolder() to reset holder.
+     * Replace the default TaskScheduler, call it before any task executes.
      *
-     * 用于承载当前上下文环境 (Activity/FragmentActivity(v4)/Fragment/Fragment(v4) ，
-     * 当当前上下文环境的生命周期停止时，记住使用 resetHolder() 将 holder 重置。
+     * 替换默认的 TaskScheduler ，需要在任何任务执行之前调用。
      */
-    private Holder holder = null;
-
-    private Map<Integer, TaskDescription> taskMap = new ConcurrentHashMap<>();
-
-    private Map<Integer, MessageListener> messageMap = new ConcurrentHashMap<>();
-
-    private Map<Integer, FinishListener> finishMap = new ConcurrentHashMap<>();
-
-    private Map<Integer, BrokenListener> brokenMap = new ConcurrentHashMap<>();
+    @MainThread
+    public static void setScheduler(@NonNull TaskEngine.Scheduler scheduler) {
+        getEngine().setScheduler(scheduler);
+    }
 
-    private Executor executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 8);
+    /*
+     * Replace the default ResultCache, which keeps at most 64 results.
+     *
+     * 替换默认的 ResultCache ，默认最多保存 64 个结果。
+     */
+    @MainThread
+    public static void setCache(@NonNull ResultCache cache) {
+        getEngine().setCache(cache);
+    }
 
     /*
-     * When message.what = MESSAGE_STOP, clear all MainThread callback,
-     * so we decouple WorkerThread and MainThread, avoid OOM.
+     * Use it to read hit/miss counters, or trim it in onTrimMemory().
      *
-     * 当 message.what = MESSAGE_STOP ，我们立即清除所有在主线程中的回调，
-     * 这样就做到了后台线程和主线程的解耦，有效避免 OOM 。
+     * 可用于读取命中/未命中计数，或者在 onTrimMemory() 中清理它。
      */
-    private Handler handler = new Handler(Looper.getMainLooper(), new Handler.Callback() {
-        @Override
-        public boolean handleMessage(@NonNull Message message) {
-            if (message.what == MESSAGE_FINISH && message.obj instanceof Holder) {
-                Holder result = (Holder) message.obj;
+    @NonNull
+    public static ResultCache getCache() {
+        return getEngine().getCache();
+    }
 
-                taskMap.remove(result.id);
-                messageMap.remove(result.id);
-                brokenMap.remove(result.id);
+    /*
+     * Acquire buffers for large results from it, see BufferPool.
+     *
+     * 从这里为大结果申请 buffer ，参考 BufferPool 。
+     */
+    @NonNull
+    public static BufferPool getBufferPool() {
+        return getEngine().getBufferPool();
+    }
 
-                FinishListener listener = finishMap.remove(result.id);
-                if (listener != null) {
-                    listener.onFinish(result.object);
-                }
+    /*
+     * Turn tracing on by TaskMetrics or SystraceTracer, set null to turn it off.
+     *
+     * 通过 TaskMetrics 或者 SystraceTracer 开启追踪，设置为 null 即可关闭。
+     */
+    @MainThread
+    public static void setTracer(@Nullable TaskEngine.Tracer tracer) {
+        getEngine().setTracer(tracer);
+    }
 
-                getInstance().dispatchUnregister();
-            } else if (message.what == MESSAGE_BROKEN && message.obj instanceof Holder) {
-                Holder result = (Holder) message.obj;
+    /*
+     * Turn on durable(), call it once in Application.onCreate(), it never touches the disk on MainThread,
+     * the tasks left by the last process are read on the journal thread and run later as deferred tasks.
+     *
+     * 开启 durable() ，在 Application.onCreate() 中调用一次，它不会在主线程中访问磁盘，
+     * 上一个进程遗留的任务会在日志线程中被读取，之后作为延迟任务执行。
+     */
+    @MainThread
+    public static void setJournal(@NonNull TaskJournal journal) {
+        getEngine().setJournal(journal);
+    }
 
-                taskMap.remove(result.id);
-                messageMap.remove(result.id);
-                finishMap.remove(result.id);
+    /*
+     * How many deferred tasks may run at once, 1 by default.
+     *
+     * 同时最多可以执行多少个延迟任务，默认为 1 。
+     */
+    @MainThread
+    public static void setDeferredLimit(int limit) {
+        getEngine().setDeferredLimit(limit);
+    }
 
-                BrokenListener listener = brokenMap.remove(result.id);
-                if (listener != null) {
-                    listener.onBroken((Exception) result.object);
-                }
+    /*
+     * How many tasks of group wait for a slot of group().
+     *
+     * group 中有多少个任务在等待 group() 的空位。
+     */
+    @MainThread
+    public static int getGroupQueueSize(@NonNull String group) {
+        return getEngine().getGroupQueueSize(group);
+    }
 
-                getInstance().dispatchUnregister();
-            } else if (message.what == MESSAGE_STOP) {
-                resetHolder();
+    /*
+     * How many tasks of group hold a slot of group().
+     *
+     * group 中有多少个任务占用着 group() 的空位。
+     */
+    @MainThread
+    public static int getGroupRunningCount(@NonNull String group) {
+        return getEngine().getGroupRunningCount(group);
+    }
 
-                taskMap.clear();
-                messageMap.clear();
-                finishMap.clear();
-                brokenMap.clear();
-            } else {
-                for (MessageListener listener : messageMap.values()) {
-                    listener.handleMessage(message);
-                }
-            }
+    /*
+     * How much time callbacks of results may take per frame, 8ms by default, 0 means no limit,
+     * results which don't fit move to the next frame, higher priority first.
+     *
+     * 每一帧中结果回调最多可以占用多少时间，默认为 8ms ， 0 表示没有限制，
+     * 放不下的结果会移到下一帧，优先级高的先发送。
+     */
+    @MainThread
+    public static void setDeliveryBudget(long budgetMillis) {
+        getEngine().setDeliveryBudget(budgetMillis);
+    }
 
-            return true;
-        }
-    });
+    /*
+     * How many frames spent more time in result callbacks than the budget.
+     *
+     * 有多少帧在结果回调中花费的时间超过了预算。
+     */
+    public static long getOverBudgetCount() {
+        return getEngine().getOverBudgetCount();
+    }
 
-    private Register buildRegister(@NonNull Activity activity) {
-        holder = new Holder(ID_ACTIVITY, activity);
+    /*
+     * How many results were moved to a later frame by the budget.
+     *
+     * 有多少结果因为预算被移到了之后的帧。
+     */
+    public static long getPostponedCount() {
+        return getEngine().getPostponedCount();
+    }
 
-        return new Register(count.getAndIncrement());
+    /*
+     * How many progress messages were merged away by coalesce().
+     *
+     * 通过 coalesce() 被合并掉的进度消息数量。
+     */
+    public static long getMergedCount() {
+        return getEngine().getMergedCount();
     }
 
-    private Register buildRegister(@NonNull FragmentActivity activity) {
-        holder = new Holder(ID_FRAGMENT_ACTIVITY, activity);
+    private static class SugarTaskHolder {
+        public static final Engine INSTANCE = new Engine(new MainDispatcher());
+    }
 
-        return new Register(count.getAndIncrement());
+    private static Engine getEngine() {
+        return SugarTaskHolder.INSTANCE;
     }
 
-    private Register buildRegister(@NonNull Fragment fragment) {
-        holder = new Holder(ID_FRAGMENT, fragment);
+    /*
+     * Apply task priority to WorkerThread by Process.
+     *
+     * 通过 Process 将任务优先级应用到后台线程上。
+     */
+    private static class Engine extends TaskEngine<Message> {
+        private Engine(@NonNull Dispatcher dispatcher) {
+            super(dispatcher);
+        }
 
-        return new Register(count.getAndIncrement());
+        @Override
+        @WorkerThread
+        protected void prepareThread(int priority) {
+            Process.setThreadPriority(getThreadPriority(priority));
+        }
     }
 
-    private Register buildRegister(@NonNull android.support.v4.app.Fragment fragment) {
-        holder = new Holder(ID_SUPPORT_FRAGMENT, fragment);
+    /*
+     * Every event of the engine goes through the Handler of the main Looper,
+     * frames come from Choreographer since API 16, or every 16ms before it.
+     * There is only one engine, so the Handler always hands events back to it.
+     *
+     * 引擎的所有事件都经过主线程 Looper 的 Handler ，
+     * 从 API 16 开始帧来自 Choreographer ，在此之前则是每 16ms 一次。
+     * 只有一个引擎，所以 Handler 总是将事件交还给它。
+     */
+    private static class MainDispatcher implements TaskEngine.Dispatcher {
+        private Handler handler = new Handler(Looper.getMainLooper(), new Handler.Callback() {
+            @Override
+            public boolean handleMessage(@NonNull Message message) {
+                getEngine().handleMessage(message.what, message.obj);
+                return true;
+            }
+        });
 
-        return new Register(count.getAndIncrement());
-    }
+        private MessageQueue.IdleHandler idleHandler = new MessageQueue.IdleHandler() {
+            @Override
+            public boolean queueIdle() {
+                getEngine().flushIdle();
+                return false;
+            }
+        };
 
-    private Runnable buildRunnable(@NonNull final Integer id) {
-        return new Runnable() {
+        private Runnable frameRunnable = new Runnable() {
             @Override
             public void run() {
-                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
-
-                /*
-                 * TODO:
-                 *
-                 * Thread safety problem.
-                 *
-                 * 线程安全问题。
-                 */
-                if (taskMap.containsKey(id)) {
-                    Message message = Message.obtain();
-
-                    try {
-                        message.what = MESSAGE_FINISH;
-                        message.obj = new Holder(id, taskMap.get(id).onBackground());
-                    } catch (Exception e) {
-                        message.what = MESSAGE_BROKEN;
-                        message.obj = new Holder(id, e);
-                    }
-
-                    post(message);
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+                    FrameCallback.post();
+                } else {
+                    getEngine().flushFrame();
                 }
             }
         };
+
+        @Override
+        public void dispatch(@NonNull TaskEngine<?> engine, int what, @Nullable Object obj, long delayMillis) {
+            Message message = Message.obtain();
+            message.what = what;
+            message.obj = obj;
+            handler.sendMessageDelayed(message, delayMillis);
+        }
+
+        @Override
+        public void dispatchFrame(@NonNull TaskEngine<?> engine) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+                handler.post(frameRunnable);
+            } else {
+                handler.postDelayed(frameRunnable, FRAME_INTERVAL);
+            }
+        }
+
+        /*
+         * The engine only asks on MainThread, so Looper.myQueue() is the queue of the main Looper.
+         *
+         * 引擎只会在主线程中请求，所以 Looper.myQueue() 就是主线程 Looper 的队列。
+         */
+        @Override
+        public void dispatchIdle(@NonNull TaskEngine<?> engine) {
+            Looper.myQueue().addIdleHandler(idleHandler);
+        }
     }
 
-    private void registerHookToContext(@NonNull Activity activity) {
-        FragmentManager manager = activity.getFragmentManager();
+    /*
+     * Choreographer is only available since API 16, keep it in its own class.
+     *
+     * Choreographer 从 API 16 开始才可用，所以把它放在单独的类中。
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static class FrameCallback implements Choreographer.FrameCallback {
+        private static final FrameCallback INSTANCE = new FrameCallback();
 
-        HookFragment hookFragment = (HookFragment) manager.findFragmentByTag(TAG_HOOK);
+        private static void post() {
+            Choreographer.getInstance().postFrameCallback(INSTANCE);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            getEngine().flushFrame();
+        }
+    }
+
+    private static int getThreadPriority(int priority) {
+        if (priority <= PRIORITY_HIGH) {
+            return Process.THREAD_PRIORITY_DEFAULT;
+        } else if (priority >= PRIORITY_LOW) {
+            return Process.THREAD_PRIORITY_LOWEST;
+        } else {
+            return Process.THREAD_PRIORITY_BACKGROUND;
+        }
+    }
+
+    private static HookFragment registerHookToContext(@NonNull Activity activity) {
+        HookFragment hookFragment = hookMap.get(activity);
+        if (hookFragment != null) {
+            return hookFragment;
+        }
+
+        FragmentManager manager = activity.getFragmentManager();
+        hookFragment = (HookFragment) manager.findFragmentByTag(TAG_HOOK);
         if (hookFragment == null) {
             hookFragment = new HookFragment();
             manager.beginTransaction().add(hookFragment, TAG_HOOK).commitAllowingStateLoss();
         }
+
+        hookMap.put(activity, hookFragment);
+
+        return hookFragment;
     }
 
-    private void registerHookToContext(@NonNull FragmentActivity activity) {
-        android.support.v4.app.FragmentManager manager = activity.getSupportFragmentManager();
+    private static HookSupportFragment registerHookToContext(@NonNull FragmentActivity activity) {
+        HookSupportFragment hookSupportFragment = supportHookMap.get(activity);
+        if (hookSupportFragment != null) {
+            return hookSupportFragment;
+        }
 
-        HookSupportFragment hookSupportFragment = (HookSupportFragment) manager.findFragmentByTag(TAG_HOOK);
+        android.support.v4.app.FragmentManager manager = activity.getSupportFragmentManager();
+        hookSupportFragment = (HookSupportFragment) manager.findFragmentByTag(TAG_HOOK);
         if (hookSupportFragment == null) {
             hookSupportFragment = new HookSupportFragment();
             manager.beginTransaction().add(hookSupportFragment, TAG_HOOK).commitAllowingStateLoss();
         }
+
+        supportHookMap.put(activity, hookSupportFragment);
+
+        return hookSupportFragment;
     }
 
     @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
-    private void registerHookToContext(@NonNull Fragment fragment) {
-        FragmentManager manager = fragment.getChildFragmentManager();
+    private static HookFragment registerHookToContext(@NonNull Fragment fragment) {
+        HookFragment hookFragment = hookMap.get(fragment);
+        if (hookFragment != null) {
+            return hookFragment;
+        }
+
+        if (fragment.getActivity() != null) {
+            registerHookToContext(fragment.getActivity());
+        }
 
-        HookFragment hookFragment = (HookFragment) manager.findFragmentByTag(TAG_HOOK);
+        FragmentManager manager = fragment.getChildFragmentManager();
+        hookFragment = (HookFragment) manager.findFragmentByTag(TAG_HOOK);
         if (hookFragment == null) {
             hookFragment = new HookFragment();
             manager.beginTransaction().add(hookFragment, TAG_HOOK).commitAllowingStateLoss();
         }
+
+        hookMap.put(fragment, hookFragment);
+
+        return hookFragment;
     }
 
-    private void registerHookToContext(@NonNull android.support.v4.app.Fragment fragment) {
-        android.support.v4.app.FragmentManager manager = fragment.getChildFragmentManager();
+    private static HookSupportFragment registerHookToContext(@NonNull android.support.v4.app.Fragment fragment) {
+        HookSupportFragment hookSupportFragment = supportHookMap.get(fragment);
+        if (hookSupportFragment != null) {
+            return hookSupportFragment;
+        }
+
+        if (fragment.getActivity() != null) {
+            registerHookToContext(fragment.getActivity());
+        }
 
-        HookSupportFragment hookSupportFragment = (HookSupportFragment) manager.findFragmentByTag(TAG_HOOK);
+        android.support.v4.app.FragmentManager manager = fragment.getChildFragmentManager();
+        hookSupportFragment = (HookSupportFragment) manager.findFragmentByTag(TAG_HOOK);
         if (hookSupportFragment == null) {
             hookSupportFragment = new HookSupportFragment();
             manager.beginTransaction().add(hookSupportFragment, TAG_HOOK).commitAllowingStateLoss();
         }
-    }
-
-    private void dispatchUnregister() {
-        if (holder == null || taskMap.size() > 0) {
-            return;
-        }
 
-        if (holder.id.equals(ID_ACTIVITY) && holder.object instanceof Activity) {
-            unregisterHookToContext((Activity) holder.object);
-        } else if (holder.id.equals(ID_FRAGMENT_ACTIVITY) && holder.object instanceof FragmentActivity) {
-            unregisterHookToContext((FragmentActivity) holder.object);
-        } else if (holder.id.equals(ID_FRAGMENT) && holder.object instanceof Fragment) {
-            unregisterHookToContext((Fragment) holder.object);
-        } else if (holder.id.equals(ID_SUPPORT_FRAGMENT) && holder.object instanceof android.support.v4.app.Fragment) {
-            unregisterHookToContext((android.support.v4.app.Fragment) holder.object);
-        }
+        supportHookMap.put(fragment, hookSupportFragment);
 
-        resetHolder();
+        return hookSupportFragment;
     }
 
-    private void unregisterHookToContext(@NonNull Activity activity) {
-        FragmentManager manager = activity.getFragmentManager();
+    /*
+     * A nested hook parks its scope in the hook of its Activity, which is retained,
+     * the hook is also added on the first with() of a nested fragment, so it exists by then.
+     * Without it the scope can't survive, so discard it.
+     *
+     * 嵌套的 hook 将它的 scope 停放在它的 Activity 的 hook 中，后者会被保留，
+     * 嵌套 fragment 第一次调用 with() 时也会添加这个 hook ，所以此时它已经存在。
+     * 如果没有它， scope 就无法存活，所以丢弃这个 scope 。
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+    private static void putParkedScope(@NonNull Fragment fragment, @NonNull TaskEngine<Message>.Scope scope) {
+        HookFragment host = fragment.getActivity() != null
+                ? (HookFragment) fragment.getActivity().getFragmentManager().findFragmentByTag(TAG_HOOK) : null;
+        TaskEngine<Message>.Scope old = host != null ? host.parkedMap.put(pathOf(fragment), scope) : scope;
 
-        HookFragment hookFragment = (HookFragment) manager.findFragmentByTag(TAG_HOOK);
-        if (hookFragment != null) {
-            hookFragment.postEnable = false;
-            manager.beginTransaction().remove(hookFragment).commitAllowingStateLoss();
+        if (old != null) {
+            getEngine().discardScope(old);
         }
     }
 
-    private void unregisterHookToContext(@NonNull FragmentActivity activity) {
-        android.support.v4.app.FragmentManager manager = activity.getSupportFragmentManager();
+    private static void putParkedScope(@NonNull android.support.v4.app.Fragment fragment, @NonNull TaskEngine<Message>.Scope scope) {
+        HookSupportFragment host = fragment.getActivity() != null
+                ? (HookSupportFragment) fragment.getActivity().getSupportFragmentManager().findFragmentByTag(TAG_HOOK) : null;
+        TaskEngine<Message>.Scope old = host != null ? host.parkedMap.put(pathOf(fragment), scope) : scope;
 
-        HookSupportFragment hookSupportFragment = (HookSupportFragment) manager.findFragmentByTag(TAG_HOOK);
-        if (hookSupportFragment != null) {
-            hookSupportFragment.postEnable = false;
-            manager.beginTransaction().remove(hookSupportFragment).commitAllowingStateLoss();
+        if (old != null) {
+            getEngine().discardScope(old);
         }
     }
 
     @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
-    private void unregisterHookToContext(@NonNull Fragment fragment) {
-        FragmentManager manager = fragment.getChildFragmentManager();
+    private static TaskEngine<Message>.Scope takeParkedScope(@NonNull Fragment fragment) {
+        HookFragment host = fragment.getActivity() != null
+                ? (HookFragment) fragment.getActivity().getFragmentManager().findFragmentByTag(TAG_HOOK) : null;
 
-        HookFragment hookFragment = (HookFragment) manager.findFragmentByTag(TAG_HOOK);
-        if (hookFragment != null) {
-            hookFragment.postEnable = false;
-            manager.beginTransaction().remove(hookFragment).commitAllowingStateLoss();
-        }
+        return host != null ? host.parkedMap.remove(pathOf(fragment)) : null;
     }
 
-    private void unregisterHookToContext(@NonNull android.support.v4.app.Fragment fragment) {
-        android.support.v4.app.FragmentManager manager = fragment.getChildFragmentManager();
+    private static TaskEngine<Message>.Scope takeParkedScope(@NonNull android.support.v4.app.Fragment fragment) {
+        HookSupportFragment host = fragment.getActivity() != null
+                ? (HookSupportFragment) fragment.getActivity().getSupportFragmentManager().findFragmentByTag(TAG_HOOK) : null;
 
-        HookSupportFragment hookSupportFragment = (HookSupportFragment) manager.findFragmentByTag(TAG_HOOK);
-        if (hookSupportFragment != null) {
-            hookSupportFragment.postEnable = false;
-            manager.beginTransaction().remove(hookSupportFragment).commitAllowingStateLoss();
+        return host != null ? host.parkedMap.remove(pathOf(fragment)) : null;
+    }
+
+    /*
+     * A recreated fragment is a new object, it's found by its place in the hierarchy,
+     * the same way FragmentManager restores it.
+     *
+     * 被重建的 fragment 是一个新的对象，通过它在层级关系中的位置找到它，
+     * 和 FragmentManager 恢复它的方式一样。
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+    private static String pathOf(@NonNull Fragment fragment) {
+        StringBuilder builder = new StringBuilder();
+        for (Fragment node = fragment; node != null; node = node.getParentFragment()) {
+            builder.append(node.getClass().getName()).append(':').append(node.getId()).append(':').append(node.getTag()).append('/');
         }
+
+        return builder.toString();
     }
 
-    private void resetHolder() {
-        if (holder == null) {
-            return;
+    private static String pathOf(@NonNull android.support.v4.app.Fragment fragment) {
+        StringBuilder builder = new StringBuilder();
+        for (android.support.v4.app.Fragment node = fragment; node != null; node = node.getParentFragment()) {
+            builder.append(node.getClass().getName()).append(':').append(node.getId()).append(':').append(node.getTag()).append('/');
         }
 
-        holder.id = 0;
-        holder.object = null;
-        holder = null;
+        return builder.toString();
+    }
+
+    /*
+     * A retained hook may still be kept for its old owner, so forget every entry of it.
+     *
+     * 被保留的 hook 可能仍然以它的旧宿主保存着，所以忘记它的每一个条目。
+     */
+    private static <T> void forgetHook(@NonNull Map<Object, T> map, @NonNull T hook) {
+        Iterator<T> iterator = map.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next() == hook) {
+                iterator.remove();
+            }
+        }
     }
-}
\ No newline at end of file
+}
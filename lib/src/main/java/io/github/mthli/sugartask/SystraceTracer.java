@@ -0,0 +1,100 @@
+/*
+ * Copyright 2015 Matthew Lee
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.mthli.sugartask;
+
+import android.os.Build;
+import android.os.Trace;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/*
+ * Wrap every run of onBackground() in an android.os.Trace section named "SugarTask:tag",
+ * so tasks show up in systrace, then pass every event to the delegate, such as TaskMetrics.
+ * Sections are only written since API 18.
+ *
+ * 将每次 onBackground() 的执行包裹在名为 "SugarTask:tag" 的 android.os.Trace 区段中，
+ * 这样任务就会出现在 systrace 中，然后将所有事件交给 delegate ，例如 TaskMetrics 。
+ * 区段只在 API 18 及以上写入。
+ */
+public class SystraceTracer implements TaskEngine.Tracer {
+    private static final String SECTION = "SugarTask";
+
+    private static final int MAX_SECTION_LENGTH = 127;
+
+    private TaskEngine.Tracer delegate;
+
+    public SystraceTracer() {
+        this(null);
+    }
+
+    public SystraceTracer(@Nullable TaskEngine.Tracer delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void beginRun(@Nullable String tag) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.beginSection(getSectionName(tag));
+        }
+
+        if (delegate != null) {
+            delegate.beginRun(tag);
+        }
+    }
+
+    @Override
+    public void endRun(@Nullable String tag) {
+        if (delegate != null) {
+            delegate.endRun(tag);
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.endSection();
+        }
+    }
+
+    @Override
+    public void onDelivered(@Nullable String tag, boolean broken, long queueNanos, long runNanos, long deliveryNanos) {
+        if (delegate != null) {
+            delegate.onDelivered(tag, broken, queueNanos, runNanos, deliveryNanos);
+        }
+    }
+
+    @Override
+    public void onCancelled(@Nullable String tag) {
+        if (delegate != null) {
+            delegate.onCancelled(tag);
+        }
+    }
+
+    @Override
+    public void onDropped(@Nullable String tag) {
+        if (delegate != null) {
+            delegate.onDropped(tag);
+        }
+    }
+
+    @NonNull
+    private static String getSectionName(@Nullable String tag) {
+        if (tag == null) {
+            return SECTION;
+        }
+
+        String name = SECTION + ":" + tag;
+        return name.length() > MAX_SECTION_LENGTH ? name.substring(0, MAX_SECTION_LENGTH) : name;
+    }
+}